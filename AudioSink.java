@@ -0,0 +1,40 @@
+/**
+ * Plays the Chip-8's buzzer.
+ * @author Andrew Cheung
+ */
+public interface AudioSink {
+    /**
+     * Sink that stays silent, for headless runs.
+     */
+    public static final AudioSink NONE = new AudioSink() {
+        public void setTone(boolean on) {
+        }
+
+        public void setPattern(byte[] pattern, int pitch) {
+        }
+
+        public void endFrame() {
+        }
+    };
+
+    /**
+     * Starts or stops the tone. Called only when the sound timer changes between
+     * zero and non-zero.
+     * @param on - true if the tone should sound
+     */
+    public void setTone(boolean on);
+
+    /**
+     * Replaces the XO-CHIP audio pattern played while the tone is on. Called on the
+     * emulator thread, so implementations must copy what they need without blocking.
+     * @param pattern - 16 bytes, 128 one-bit samples, most significant bit first
+     * @param pitch - playback rate, 4000 * 2^((pitch - 64) / 48) samples per second
+     */
+    public void setPattern(byte[] pattern, int pitch);
+
+    /**
+     * Called once per emulated frame, just before the timers tick. Sinks that render
+     * in emulated time rather than in real time append one frame of audio here.
+     */
+    public void endFrame();
+}
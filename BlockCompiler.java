@@ -0,0 +1,489 @@
+/**
+ * Optional dynamic recompiler for a Chip8.
+ * Discovers basic blocks of register-only instructions, translates each into a hidden
+ * JVM class implementing CompiledBlock, and caches it by start address. A block ends at
+ * the first instruction that branches, touches memory, timers, keys or the display, or
+ * waits for a key (Fx0A); that instruction is left to the interpreter. Blocks are
+ * dropped when Memory.write() touches any of their bytes. Code follows the machine's
+ * QuirkProfile, fixed when the compiler is created.
+ * @author Andrew Cheung
+ */
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.io.*;
+
+public class BlockCompiler implements Memory.WriteListener {
+    /**
+     * Number of times a start address is reached before its block is compiled.
+     */
+    public static final int COMPILE_THRESHOLD = 16;
+
+    /**
+     * Longest block compiled, in instructions.
+     */
+    public static final int MAX_BLOCK_LENGTH = 64;
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+    private static final String CLASS_NAME = "Chip8Block";
+
+    /**
+     * Marks a start address whose first instruction cannot be compiled.
+     */
+    private static final Block NOT_COMPILABLE = new Block(null, (char)0, 0);
+
+    private Memory memory;
+    private QuirkProfile quirks;
+    private Block[] blocks;
+    private int[] heat;
+
+    private long blocksCompiled;
+    private long blocksInvalidated;
+
+    /**
+     * A compiled block and the range of addresses it was built from.
+     */
+    public static final class Block {
+        final CompiledBlock code;
+        final char end;
+        final int length;
+
+        private Block(CompiledBlock code, char end, int length) {
+            this.code = code;
+            this.end = end;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Constructs a compiler over the given memory and starts listening for writes to it.
+     * @param memory - memory the blocks are read from
+     * @param quirks - profile whose semantics compiled code must match
+     */
+    public BlockCompiler(Memory memory, QuirkProfile quirks) {
+        this.memory = memory;
+        this.quirks = quirks;
+        blocks = new Block[Memory.END_ADDRESS - Memory.START_ADDRESS];
+        heat = new int[blocks.length];
+        memory.setWriteListener(this);
+    }
+
+    /**
+     * Returns the compiled block starting at the given address, compiling it once the
+     * address is hot.
+     * @param address - current program counter
+     * @return block, or null if the interpreter should execute the next instruction
+     */
+    public Block lookup(char address) {
+        int index = address - Memory.START_ADDRESS;
+        if (index < 0 || index >= blocks.length) {
+            return null;
+        }
+        Block block = blocks[index];
+        if (block == null) {
+            if (++heat[index] < COMPILE_THRESHOLD) {
+                return null;
+            }
+            block = compile(address);
+            blocks[index] = block;
+        }
+        return block == NOT_COMPILABLE ? null : block;
+    }
+
+    @Override
+    public void written(char address) {
+        int first = Math.max(0, address - Memory.START_ADDRESS - 2 * MAX_BLOCK_LENGTH + 1);
+        int last = Math.min(blocks.length - 1, address - Memory.START_ADDRESS);
+        for (int i = first; i <= last; i++) {
+            Block block = blocks[i];
+            if (block == NOT_COMPILABLE) {
+                if (i >= last - 1) {
+                    blocks[i] = null;
+                }
+            } else if (block != null && block.end > address) {
+                blocks[i] = null;
+                heat[i] = 0;
+                blocksInvalidated++;
+            }
+        }
+    }
+
+    /**
+     * Drops every compiled block, e.g. after memory was replaced wholesale.
+     */
+    public void invalidateAll() {
+        for (int i = 0; i < blocks.length; i++) {
+            if (blocks[i] != null && blocks[i] != NOT_COMPILABLE) {
+                blocksInvalidated++;
+            }
+            blocks[i] = null;
+            heat[i] = 0;
+        }
+    }
+
+    /**
+     * Returns the number of blocks compiled so far.
+     */
+    public long getBlocksCompiled() {
+        return blocksCompiled;
+    }
+
+    /**
+     * Returns the number of compiled blocks dropped because their code was overwritten.
+     */
+    public long getBlocksInvalidated() {
+        return blocksInvalidated;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d blocks compiled, %d invalidated", blocksCompiled, blocksInvalidated);
+    }
+
+    /**
+     * Compiles the block starting at the given address.
+     * @return compiled block, or NOT_COMPILABLE if its first instruction can't be compiled
+     */
+    private Block compile(char start) {
+        ByteArrayOutputStream code = new ByteArrayOutputStream();
+        char address = start;
+        int length = 0;
+        while (length < MAX_BLOCK_LENGTH && address < Memory.END_ADDRESS - 1
+               && emit(memory.getInstruction(address), quirks, code)) {
+            address += 2;
+            length++;
+        }
+        if (length == 0) {
+            return NOT_COMPILABLE;
+        }
+        code.write(ILOAD_2);
+        code.write(IRETURN);
+        try {
+            Class<?> blockClass = LOOKUP.defineHiddenClass(classFile(code.toByteArray()), true).lookupClass();
+            CompiledBlock compiled = (CompiledBlock)LOOKUP.findConstructor(blockClass,
+                                                                           MethodType.methodType(void.class)).invoke();
+            blocksCompiled++;
+            return new Block(compiled, address, length);
+        } catch (Throwable e) {
+            throw new IllegalStateException(String.format("Could not compile block at %04x!", (int)start), e);
+        }
+    }
+
+    /**
+     * Appends bytecode for the given instruction to the body of run(). Operand stack and
+     * locals follow the interpreter's handlers exactly, including their order of register
+     * reads and writes, so compiled and interpreted runs stay bit-identical.
+     * @return false if the instruction can't be compiled, in which case nothing is appended
+     */
+    private static boolean emit(Instruction ins, QuirkProfile quirks, ByteArrayOutputStream code) {
+        switch (ins.opcode & 0xF000) {
+            case 0x6000: // Vx = kk
+                register(code, ins.x);
+                push(code, ins.kk);
+                code.write(BASTORE);
+                return true;
+            case 0x7000: // Vx += kk
+                register(code, ins.x);
+                load(code, ins.x);
+                push(code, ins.kk);
+                code.write(IADD);
+                code.write(BASTORE);
+                return true;
+            case 0xA000: // I = nnn
+                code.write(SIPUSH);
+                code.write(ins.nnn >> 8);
+                code.write(ins.nnn & 0xFF);
+                code.write(ISTORE_2);
+                return true;
+            case 0x8000:
+                return emitArithmetic(ins, quirks, code);
+            case 0xF000:
+                if ((ins.opcode & 0x00FF) == 0x1E) { // I = (I + unsigned Vx) & 0xFFFF
+                    code.write(ILOAD_2);
+                    load(code, ins.x);
+                    code.write(SIPUSH);
+                    code.write(0x00);
+                    code.write(0xFF);
+                    code.write(IAND);
+                    code.write(IADD);
+                    code.write(I2C);
+                    code.write(ISTORE_2);
+                    return true;
+                } else if ((ins.opcode & 0x00FF) == 0x29) { // I = FONT_START_ADDRESS + 5 * Vx
+                    code.write(SIPUSH);
+                    code.write(Memory.FONT_START_ADDRESS >> 8);
+                    code.write(Memory.FONT_START_ADDRESS & 0xFF);
+                    code.write(ICONST_5);
+                    load(code, ins.x);
+                    code.write(IMUL);
+                    code.write(IADD);
+                    code.write(I2C);
+                    code.write(ISTORE_2);
+                    return true;
+                }
+                return false;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Emits 8xyN. Comparisons are computed branch-free from the sign bit so the method
+     * needs no stack map frames.
+     */
+    private static boolean emitArithmetic(Instruction ins, QuirkProfile quirks, ByteArrayOutputStream code) {
+        switch (ins.n) {
+            case 0x0: // Vx = Vy
+                register(code, ins.x);
+                load(code, ins.y);
+                code.write(BASTORE);
+                return true;
+            case 0x1: // Vx |= Vy
+            case 0x2: // Vx &= Vy
+            case 0x3: // Vx ^= Vy
+                register(code, ins.x);
+                load(code, ins.x);
+                load(code, ins.y);
+                code.write(ins.n == 0x1 ? IOR : ins.n == 0x2 ? IAND : IXOR);
+                code.write(BASTORE);
+                if (quirks.logicResetsVF) { // VF = 0
+                    register(code, 0xF);
+                    code.write(ICONST_0);
+                    code.write(BASTORE);
+                }
+                return true;
+            case 0x4: // sum = (char)(Vx + Vy); VF = sum > 255; Vx = sum
+                load(code, ins.x);
+                load(code, ins.y);
+                code.write(IADD);
+                code.write(I2C);
+                code.write(ISTORE_3);
+                register(code, 0xF);
+                code.write(SIPUSH);
+                code.write(0x00);
+                code.write(0xFF);
+                code.write(ILOAD_3);
+                code.write(ISUB);
+                signBit(code);
+                code.write(BASTORE);
+                register(code, ins.x);
+                code.write(ILOAD_3);
+                code.write(BASTORE);
+                return true;
+            case 0x5: // VF = Vx > Vy; Vx -= Vy
+            case 0x7: // VF = Vy > Vx; Vx -= Vy
+                register(code, 0xF);
+                load(code, ins.n == 0x5 ? ins.y : ins.x);
+                load(code, ins.n == 0x5 ? ins.x : ins.y);
+                code.write(ISUB);
+                signBit(code);
+                code.write(BASTORE);
+                register(code, ins.x);
+                load(code, ins.x);
+                load(code, ins.y);
+                code.write(ISUB);
+                code.write(BASTORE);
+                return true;
+            case 0x6: // VF = Vx & 1; Vx = unsigned Vx >>> 1
+                if (quirks.shiftsVy) { // value = Vy; VF = value & 1; Vx = unsigned value >>> 1
+                    load(code, ins.y);
+                    code.write(ISTORE_3);
+                    register(code, 0xF);
+                    code.write(ILOAD_3);
+                    code.write(ICONST_1);
+                    code.write(IAND);
+                    code.write(BASTORE);
+                    register(code, ins.x);
+                    code.write(ILOAD_3);
+                    code.write(SIPUSH);
+                    code.write(0x00);
+                    code.write(0xFF);
+                    code.write(IAND);
+                    code.write(ICONST_1);
+                    code.write(IUSHR);
+                    code.write(BASTORE);
+                    return true;
+                }
+                register(code, 0xF);
+                load(code, ins.x);
+                code.write(ICONST_1);
+                code.write(IAND);
+                code.write(BASTORE);
+                register(code, ins.x);
+                load(code, ins.x);
+                code.write(SIPUSH);
+                code.write(0x00);
+                code.write(0xFF);
+                code.write(IAND);
+                code.write(ICONST_1);
+                code.write(IUSHR);
+                code.write(BASTORE);
+                return true;
+            case 0xE: // VF = (Vx >> 7) & 1; Vx <<= 1
+                if (quirks.shiftsVy) { // value = Vy; VF = (value >> 7) & 1; Vx = value << 1
+                    load(code, ins.y);
+                    code.write(ISTORE_3);
+                    register(code, 0xF);
+                    code.write(ILOAD_3);
+                    code.write(BIPUSH);
+                    code.write(7);
+                    code.write(ISHR);
+                    code.write(ICONST_1);
+                    code.write(IAND);
+                    code.write(BASTORE);
+                    register(code, ins.x);
+                    code.write(ILOAD_3);
+                    code.write(ICONST_1);
+                    code.write(ISHL);
+                    code.write(BASTORE);
+                    return true;
+                }
+                register(code, 0xF);
+                load(code, ins.x);
+                code.write(BIPUSH);
+                code.write(7);
+                code.write(ISHR);
+                code.write(ICONST_1);
+                code.write(IAND);
+                code.write(BASTORE);
+                register(code, ins.x);
+                load(code, ins.x);
+                code.write(ICONST_1);
+                code.write(ISHL);
+                code.write(BASTORE);
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Pushes the registers array and index of Vx, ready for BASTORE.
+     */
+    private static void register(ByteArrayOutputStream code, int x) {
+        code.write(ALOAD_1);
+        push(code, x);
+    }
+
+    /**
+     * Pushes the value of Vx.
+     */
+    private static void load(ByteArrayOutputStream code, int x) {
+        register(code, x);
+        code.write(BALOAD);
+    }
+
+    private static void push(ByteArrayOutputStream code, int value) {
+        code.write(BIPUSH);
+        code.write(value);
+    }
+
+    /**
+     * Replaces the int on top of the stack with 1 if it is negative, otherwise 0.
+     */
+    private static void signBit(ByteArrayOutputStream code) {
+        code.write(BIPUSH);
+        code.write(31);
+        code.write(IUSHR);
+    }
+
+    /**
+     * Builds a class file for a final class implementing CompiledBlock whose run()
+     * method has the given body.
+     */
+    private static byte[] classFile(byte[] body) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(0);
+        out.writeShort(52); // Java 8; run() has no branches, so no StackMapTable is needed
+
+        out.writeShort(14);
+        utf8(out, CLASS_NAME);                 // #1
+        classRef(out, 1);                      // #2
+        utf8(out, "java/lang/Object");         // #3
+        classRef(out, 3);                      // #4
+        utf8(out, "CompiledBlock");            // #5
+        classRef(out, 5);                      // #6
+        utf8(out, "<init>");                   // #7
+        utf8(out, "()V");                      // #8
+        out.writeByte(12);                     // #9 NameAndType <init>()V
+        out.writeShort(7);
+        out.writeShort(8);
+        out.writeByte(10);                     // #10 Methodref Object.<init>()V
+        out.writeShort(4);
+        out.writeShort(9);
+        utf8(out, "run");                      // #11
+        utf8(out, "([BI)I");                   // #12
+        utf8(out, "Code");                     // #13
+
+        out.writeShort(0x0001 | 0x0010 | 0x0020); // public final super
+        out.writeShort(2);
+        out.writeShort(4);
+        out.writeShort(1);
+        out.writeShort(6);
+        out.writeShort(0);
+
+        out.writeShort(2);
+        byte[] init = { (byte)ALOAD_0, (byte)INVOKESPECIAL, 0, 10, (byte)RETURN };
+        method(out, 7, 8, 1, 1, init);
+        method(out, 11, 12, 6, 4, body);
+
+        out.writeShort(0);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void method(DataOutputStream out, int name, int descriptor, int maxStack,
+                               int maxLocals, byte[] code) throws IOException {
+        out.writeShort(0x0001);
+        out.writeShort(name);
+        out.writeShort(descriptor);
+        out.writeShort(1);
+        out.writeShort(13);
+        out.writeInt(12 + code.length);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(code.length);
+        out.write(code);
+        out.writeShort(0);
+        out.writeShort(0);
+    }
+
+    private static void utf8(DataOutputStream out, String value) throws IOException {
+        out.writeByte(1);
+        out.writeUTF(value);
+    }
+
+    private static void classRef(DataOutputStream out, int name) throws IOException {
+        out.writeByte(7);
+        out.writeShort(name);
+    }
+
+    private static final int ALOAD_0 = 0x2A;
+    private static final int ALOAD_1 = 0x2B;
+    private static final int ICONST_0 = 0x03;
+    private static final int ICONST_1 = 0x04;
+    private static final int ICONST_5 = 0x08;
+    private static final int BIPUSH = 0x10;
+    private static final int SIPUSH = 0x11;
+    private static final int ILOAD_2 = 0x1C;
+    private static final int ILOAD_3 = 0x1D;
+    private static final int BALOAD = 0x33;
+    private static final int ISTORE_2 = 0x3D;
+    private static final int ISTORE_3 = 0x3E;
+    private static final int BASTORE = 0x54;
+    private static final int IADD = 0x60;
+    private static final int ISUB = 0x64;
+    private static final int IMUL = 0x68;
+    private static final int ISHL = 0x78;
+    private static final int ISHR = 0x7A;
+    private static final int IUSHR = 0x7C;
+    private static final int IAND = 0x7E;
+    private static final int IOR = 0x80;
+    private static final int IXOR = 0x82;
+    private static final int I2C = 0x92;
+    private static final int IRETURN = 0xAC;
+    private static final int RETURN = 0xB1;
+    private static final int INVOKESPECIAL = 0xB7;
+}
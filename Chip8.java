@@ -5,14 +5,101 @@
 
  import java.util.*;
  import java.io.*;
+ import java.nio.ByteBuffer;
+ import java.nio.channels.FileChannel;
+ import java.nio.file.Path;
+ import java.nio.file.StandardOpenOption;
 
 public class Chip8 {
+    public static final int WIDTH = 64;
+    public static final int HEIGHT = 32;
+
+    /**
+     * SUPER-CHIP high resolution. Frames handed to the display are always this size,
+     * two longs per row, with lower resolutions scaled up to fit.
+     */
+    public static final int MAX_WIDTH = 128;
+    public static final int MAX_HEIGHT = 64;
+
+    /**
+     * Longs in one bitplane at MAX_WIDTH x MAX_HEIGHT, and in a frame handed to the
+     * display: XO-CHIP's two planes, one after the other.
+     */
+    public static final int PLANE_LENGTH = MAX_HEIGHT * (MAX_WIDTH / 64);
+    public static final int FRAME_LENGTH = 2 * PLANE_LENGTH;
+
+    /**
+     * Save state header: "C8SS" followed by the format version.
+     */
+    public static final int SNAPSHOT_MAGIC = 0x43385353;
+    public static final short SNAPSHOT_VERSION = 1;
+
+    /**
+     * Number of bytes snapshot() writes ahead of memory.
+     */
+    private static final int STATE_SIZE = 4 + 2          // magic, version
+                                          + 16 + 2       // registers, I
+                                          + 4 + 4        // delay, sound
+                                          + 2 + 1        // pc, sp
+                                          + 16 * 2       // stack
+                                          + 4            // keys
+                                          + 8 + 8        // seed, rng state
+                                          + 2 + 2        // width, height
+                                          + 16           // flag registers
+                                          + 1 + 16 + 1   // plane mask, audio pattern, pitch
+                                          + 2 * PLANE_LENGTH * 8; // graphics
+
+    /**
+     * Offset of the width and height in a snapshot.
+     */
+    private static final int RESOLUTION_OFFSET = 4 + 2 + 16 + 2 + 4 + 4 + 2 + 1 + 16 * 2 + 4 + 8 + 8;
+
+    /**
+     * Most bytes snapshot() writes, i.e. with XO-CHIP's 64 KB address space. With the
+     * default 4 KB it writes MIN_SNAPSHOT_SIZE.
+     */
+    public static final int SNAPSHOT_SIZE = STATE_SIZE + Memory.MAX_SNAPSHOT_SIZE;
+    public static final int MIN_SNAPSHOT_SIZE = STATE_SIZE + Memory.SNAPSHOT_SIZE;
+
+    /**
+     * XO-CHIP pitch at which the audio pattern plays at 4000 samples per second.
+     */
+    public static final int DEFAULT_PITCH = 64;
+
+    /**
+     * A VIP two-page hires ROM starts with a jump here, and its program proper at
+     * VIP_HIRES_START.
+     */
+    private static final char VIP_HIRES_ENTRY = 0x260;
+    private static final char VIP_HIRES_START = 0x2C0;
+
+    /**
+     * First word of XO-CHIP's four-byte F000 NNNN.
+     */
+    private static final char LONG_LOAD = 0xF000;
+
+    /**
+     * Handler table for each quirk profile. Handlers keep no state of their own, so
+     * every machine running with a profile shares its table.
+     */
+    private static final Map<QuirkProfile, OpcodeFunction[]> HANDLERS
+        = new EnumMap<QuirkProfile, OpcodeFunction[]>(QuirkProfile.class);
+
+    static {
+        for (QuirkProfile quirks : QuirkProfile.values()) {
+            HANDLERS.put(quirks, createHandlers(quirks));
+        }
+    }
+
     private Memory memory;
     private char opcode;
 
-    private DisplayFrame display;
+    private DisplaySink display;
+    private InputSource input;
+    private AudioSink audio;
 
-    private Map<Character, OpcodeFunction> opcodeFuncs;
+    private OpcodeFunction[] handlers;
+    private BlockCompiler compiler;
 
     private byte[] registers;
     private char indexRegister;
@@ -24,20 +111,96 @@ public class Chip8 {
     private char[] stack;
     private byte stackPointer;
 
-    private char[][] graphics;
+    /**
+     * Framebuffer, words longs per row. Pixel x of a row is bit 63 - (x % 64) of word
+     * x / 64, so a sprite byte shifted to the top of a long and rotated right by x
+     * lands in place. Grown to PLANE_LENGTH the first time high resolution is entered.
+     */
+    private long[] graphics;
+    private int width;
+    private int height;
+    private int words;
+
+    /**
+     * XO-CHIP's second bitplane, laid out like graphics at PLANE_LENGTH, or null until
+     * first selected. Bit p of planeMask is set for each plane that Draw, clears and
+     * scrolls act on, so ROMs that only use the first plane never touch the second.
+     */
+    private long[] secondPlane;
+    private int planeMask;
+
+    /**
+     * SUPER-CHIP's user flags, saved and loaded by Fx75/Fx85.
+     */
+    private byte[] flags;
+
+    /**
+     * XO-CHIP's audio pattern buffer, 128 one-bit samples, and its playback pitch.
+     */
+    private byte[] audioPattern;
+    private int pitch;
+
+    /**
+     * Interpreter behaviours the handler table was built for.
+     */
+    private QuirkProfile quirks;
     private boolean needsDrawing;
 
-    private boolean[] pressed;
+    /**
+     * Copy of the last frame handed to the display.
+     */
+    private long[] presented;
+    private TripleBuffer frames;
+
+    /**
+     * Keys held down, bit k for key k. Latched from the InputSource once per frame.
+     */
+    private int keys;
+
+    /**
+     * Set by a handler when the machine can make no progress until the next frame,
+     * i.e. until keys are latched or the delay timer ticks again.
+     */
+    private boolean idle;
+    private long instructionsRun;
+    private long instructionsSkipped;
 
+    /**
+     * Seed and state of the xorshift64* generator behind Cxkk.
+     */
+    private long seed;
+    private long rngState;
+
+    /**
+     * Constructs a machine running the given ROM file, with the quirk profile known for
+     * it, if any.
+     * @param ROM - path of a ROM file
+     */
     public Chip8(String ROM) {
-        memory = new Memory();
+        this(new Memory(), QuirkProfile.MODERN);
+        memory.loadROM(ROM);
+        setQuirks(QuirkProfile.forRom(memory.getROM()));
+    }
+
+    /**
+     * Constructs a machine running the given ROM image, without touching the file system.
+     * @param ROM - contents of a ROM file
+     * @throws IllegalArgumentException if the image is empty or too large for memory
+     */
+    public Chip8(byte[] ROM) {
+        this(new Memory(), QuirkProfile.forRom(ROM));
         memory.loadROM(ROM);
-        memory.printMemory();
+    }
 
-        display = new DisplayFrame(this);
+    private Chip8(Memory memory, QuirkProfile quirks) {
+        this.memory = memory;
+        this.quirks = quirks;
 
-        opcodeFuncs = new HashMap<Character, OpcodeFunction>();
-        initializeOpcodes();
+        display = DisplaySink.NONE;
+        input = InputSource.NONE;
+        audio = AudioSink.NONE;
+
+        handlers = HANDLERS.get(quirks);
 
         registers = new byte[16];
         indexRegister = 0;
@@ -47,11 +210,308 @@ public class Chip8 {
         stackPointer = 0;
         // where should the stack pointer point?
 
-        graphics = new char[64][32];
+        graphics = new long[HEIGHT];
+        width = WIDTH;
+        height = HEIGHT;
+        words = 1;
+        planeMask = 1;
+        flags = new byte[16];
+        audioPattern = new byte[16];
+        pitch = DEFAULT_PITCH;
+        setSeed(System.nanoTime());
+    }
+
+    /**
+     * Returns an independent copy of this machine in its current state. Memory pages are
+     * shared copy-on-write, so a fork costs little more than its registers and
+     * framebuffer until it writes to memory. The copy is headless, with no display,
+     * input or audio attached, and continues the same random sequence.
+     * @return copy of this machine
+     */
+    public Chip8 fork() {
+        Chip8 copy = new Chip8(memory.fork(), quirks);
+        copy.opcode = opcode;
+        System.arraycopy(registers, 0, copy.registers, 0, registers.length);
+        copy.indexRegister = indexRegister;
+        copy.delayRegister = delayRegister;
+        copy.soundRegister = soundRegister;
+        copy.programCounter = programCounter;
+        System.arraycopy(stack, 0, copy.stack, 0, stack.length);
+        copy.stackPointer = stackPointer;
+        copy.graphics = graphics.clone();
+        copy.width = width;
+        copy.height = height;
+        copy.words = words;
+        copy.secondPlane = secondPlane == null ? null : secondPlane.clone();
+        copy.planeMask = planeMask;
+        System.arraycopy(flags, 0, copy.flags, 0, flags.length);
+        System.arraycopy(audioPattern, 0, copy.audioPattern, 0, audioPattern.length);
+        copy.pitch = pitch;
+        copy.keys = keys;
+        copy.seed = seed;
+        copy.rngState = rngState;
+        copy.setCompilerEnabled(compiler != null);
+        return copy;
+    }
+
+    /**
+     * Sets where finished frames are sent. Defaults to DisplaySink.NONE.
+     * @param display - display sink
+     */
+    public void setDisplay(DisplaySink display) {
+        this.display = display;
+        if (frames == null) {
+            presented = new long[FRAME_LENGTH];
+            frames = new TripleBuffer(FRAME_LENGTH);
+        }
     }
 
-    public void setPressed(boolean[] pressed) {
-        this.pressed = pressed;
+    /**
+     * Sets where key states are polled from, once per frame. Defaults to InputSource.NONE.
+     * @param input - input source
+     */
+    public void setInput(InputSource input) {
+        this.input = input;
+    }
+
+    /**
+     * Sets what plays the buzzer. Defaults to AudioSink.NONE.
+     * @param audio - audio sink
+     */
+    public void setAudio(AudioSink audio) {
+        this.audio = audio;
+    }
+
+    /**
+     * Selects the dynamic recompiler or the plain interpreter. Off by default.
+     * @param enabled - true to execute hot straight-line code through BlockCompiler
+     */
+    public void setCompilerEnabled(boolean enabled) {
+        if (enabled && compiler == null) {
+            compiler = new BlockCompiler(memory, quirks);
+        } else if (!enabled && compiler != null) {
+            memory.setWriteListener(null);
+            compiler = null;
+        }
+    }
+
+    /**
+     * Switches to the given quirk profile, swapping in its handler table and dropping
+     * any compiled code. The profile is not part of snapshots.
+     * @param quirks - profile to run with
+     */
+    public void setQuirks(QuirkProfile quirks) {
+        if (quirks == this.quirks) {
+            return;
+        }
+        this.quirks = quirks;
+        handlers = HANDLERS.get(quirks);
+        if (compiler != null) {
+            setCompilerEnabled(false);
+            setCompilerEnabled(true);
+        }
+    }
+
+    /**
+     * Returns the quirk profile in use.
+     */
+    public QuirkProfile getQuirks() {
+        return quirks;
+    }
+
+    /**
+     * Returns the dynamic recompiler, or null if it is not enabled.
+     */
+    public BlockCompiler getCompiler() {
+        return compiler;
+    }
+
+    /**
+     * Captures the complete machine state into the given buffer, which is cleared first
+     * and flipped after, ready to read or write out. The buffer can be reused for every
+     * snapshot, so saving state each frame allocates nothing. Snapshots are
+     * MIN_SNAPSHOT_SIZE bytes unless memory has grown for XO-CHIP.
+     * @param buffer - buffer with a capacity of at least SNAPSHOT_SIZE
+     */
+    public void snapshot(ByteBuffer buffer) {
+        buffer.clear();
+        buffer.putInt(SNAPSHOT_MAGIC);
+        buffer.putShort(SNAPSHOT_VERSION);
+        buffer.put(registers);
+        buffer.putChar(indexRegister);
+        buffer.putInt(delayRegister);
+        buffer.putInt(soundRegister);
+        buffer.putChar(programCounter);
+        buffer.put(stackPointer);
+        for (int i = 0; i < stack.length; i++) {
+            buffer.putChar(stack[i]);
+        }
+        buffer.putInt(keys);
+        buffer.putLong(seed);
+        buffer.putLong(rngState);
+        buffer.putShort((short)width);
+        buffer.putShort((short)height);
+        buffer.put(flags);
+        buffer.put((byte)planeMask);
+        buffer.put(audioPattern);
+        buffer.put((byte)pitch);
+        for (int i = 0; i < PLANE_LENGTH; i++) {
+            buffer.putLong(i < graphics.length ? graphics[i] : 0);
+        }
+        for (int i = 0; i < PLANE_LENGTH; i++) {
+            buffer.putLong(secondPlane == null ? 0 : secondPlane[i]);
+        }
+        memory.snapshot(buffer);
+        buffer.flip();
+    }
+
+    /**
+     * Replaces the complete machine state with a snapshot read from the given buffer
+     * at its position, and presents the restored screen. The whole snapshot is checked
+     * before anything is replaced, so a bad one leaves the machine as it was.
+     * @param buffer - buffer positioned at data written by snapshot()
+     * @throws IllegalArgumentException if the buffer does not hold a complete snapshot
+     *                                  of this version
+     */
+    public void restore(ByteBuffer buffer) {
+        int start = buffer.position();
+        if (buffer.remaining() < 6 || buffer.getInt(start) != SNAPSHOT_MAGIC) {
+            throw new IllegalArgumentException("Not a Chip-8 save state!");
+        }
+        if (buffer.getShort(start + 4) != SNAPSHOT_VERSION) {
+            throw new IllegalArgumentException("Unsupported save state version!");
+        }
+        Memory.checkSnapshot(buffer, start + STATE_SIZE);
+        int savedWidth = buffer.getShort(start + RESOLUTION_OFFSET);
+        int savedHeight = buffer.getShort(start + RESOLUTION_OFFSET + 2);
+        // 64x64 is the VIP two-page hires mode
+        if ((savedWidth != WIDTH && savedWidth != MAX_WIDTH) || (savedHeight != HEIGHT && savedHeight != MAX_HEIGHT)) {
+            throw new IllegalArgumentException("Unsupported save state resolution!");
+        }
+
+        buffer.position(start + 6);
+        boolean wasSounding = soundRegister > 0;
+        buffer.get(registers);
+        indexRegister = buffer.getChar();
+        delayRegister = buffer.getInt();
+        soundRegister = buffer.getInt();
+        programCounter = buffer.getChar();
+        stackPointer = buffer.get();
+        for (int i = 0; i < stack.length; i++) {
+            stack[i] = buffer.getChar();
+        }
+        keys = buffer.getInt();
+        seed = buffer.getLong();
+        rngState = buffer.getLong();
+        setResolution(buffer.getShort(), buffer.getShort());
+        buffer.get(flags);
+        planeMask = buffer.get();
+        buffer.get(audioPattern);
+        pitch = Byte.toUnsignedInt(buffer.get());
+        for (int i = 0; i < PLANE_LENGTH; i++) {
+            long word = buffer.getLong();
+            if (i < graphics.length) {
+                graphics[i] = word;
+            }
+        }
+        for (int i = 0; i < PLANE_LENGTH; i++) {
+            long word = buffer.getLong();
+            if (word != 0 || secondPlane != null) {
+                secondPlane()[i] = word;
+            }
+        }
+        memory.restore(buffer);
+        audio.setPattern(audioPattern, pitch);
+        if (compiler != null) {
+            compiler.invalidateAll();
+        }
+        if (wasSounding != soundRegister > 0) {
+            audio.setTone(!wasSounding);
+        }
+        needsDrawing = true;
+        presentFrame();
+    }
+
+    /**
+     * Writes a snapshot of the machine to the given file, replacing it if it exists.
+     * @param path - file to write
+     * @throws IOException if the file can't be written
+     */
+    public void saveState(Path path) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(SNAPSHOT_SIZE);
+        snapshot(buffer);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    /**
+     * Restores the machine from a file written by saveState().
+     * @param path - file to read
+     * @throws IOException if the file can't be read
+     * @throws IllegalArgumentException if the file is not a save state of this version
+     */
+    public void loadState(Path path) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(SNAPSHOT_SIZE);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+            }
+        }
+        buffer.flip();
+        restore(buffer);
+    }
+
+    /**
+     * Returns a 64-bit FNV-1a style hash of the framebuffer, folded a word at a time.
+     */
+    public long getGraphicsHash() {
+        long hash = 0xCBF29CE484222325L;
+        for (int i = 0; i < height * words; i++) {
+            hash = (hash ^ graphics[i]) * 0x100000001B3L;
+        }
+        if (secondPlane != null) {
+            // a clear second plane hashes like none, so when it was allocated doesn't matter
+            for (int i = 0; i < height * words; i++) {
+                if (secondPlane[i] != 0) {
+                    hash = ((hash ^ i) * 0x100000001B3L ^ secondPlane[i]) * 0x100000001B3L;
+                }
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Returns the percentage of instruction slots in runFrame() skipped because the
+     * machine was idle.
+     */
+    public double getIdlePercentage() {
+        long total = instructionsRun + instructionsSkipped;
+        return total == 0 ? 0 : 100.0 * instructionsSkipped / total;
+    }
+
+    /**
+     * Reseeds the random number generator used by Cxkk. Two machines running the same
+     * ROM from the same seed with the same input produce the same results.
+     * @param seed - any value
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+        // splitmix64 finalizer, so nearby seeds give unrelated streams and state != 0
+        long z = seed + 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        z ^= z >>> 31;
+        rngState = z == 0 ? 0x9E3779B97F4A7C15L : z;
+    }
+
+    /**
+     * Returns the seed last passed to setSeed(), chosen from the clock if never set.
+     */
+    public long getSeed() {
+        return seed;
     }
 
     public void decrementTimers() {
@@ -60,117 +520,361 @@ public class Chip8 {
         }
         if (soundRegister > 0) {
             soundRegister--;
+            if (soundRegister == 0) {
+                audio.setTone(false);
+            }
+        }
+    }
+
+    /**
+     * Emulates one 60 Hz frame: runs the given number of instructions, ticks the delay
+     * and sound timers once, then presents the frame. However many sprites were drawn,
+     * the display sees at most one update per frame, and none if the screen is unchanged.
+     * If the ROM parks in Fx0A or a loop that only polls keys or the delay timer, the
+     * rest of the frame is skipped: keys and timers can't change before the next frame,
+     * so running it out would only repeat the loop. A paced caller then sleeps until
+     * the next tick, and an unpaced one reaches it immediately.
+     * @param instructions - instructions to execute this frame
+     * @return number of instructions executed
+     */
+    public int runFrame(int instructions) {
+        keys = input.pollKeys(keys);
+        int executed = 0;
+        while (executed < instructions) {
+            executed += step(instructions - executed);
+            if (idle) {
+                idle = false;
+                instructionsSkipped += instructions - executed;
+                break;
+            }
+        }
+        instructionsRun += executed;
+        audio.endFrame();
+        decrementTimers();
+        presentFrame();
+        return executed;
+    }
+
+    /**
+     * Hands the framebuffer to the display if anything was drawn this frame and the
+     * result differs from the last frame presented.
+     */
+    private void presentFrame() {
+        if (!needsDrawing) {
+            return;
+        }
+        needsDrawing = false;
+        if (display == DisplaySink.NONE) {
+            return;
+        }
+        long[] frame = frames.back();
+        scaleFrame(frame);
+        if (Arrays.equals(frame, presented)) {
+            return;
         }
+        System.arraycopy(frame, 0, presented, 0, FRAME_LENGTH);
+        frames.publish();
+        display.updateGraphics(frames);
     }
 
     /**
-     * Emulates one cycle of the CHIP-8.
+     * Writes both planes into the given frame, each MAX_WIDTH x MAX_HEIGHT, doubling
+     * pixels horizontally and rows vertically as the resolution requires.
      */
-    public void cycle() {
-        pressed = display.getPressed();
-        for (boolean val : pressed) {
-            if (val) {
-                System.out.println("Stuff is being pressed.");
+    private void scaleFrame(long[] frame) {
+        scalePlane(graphics, frame, 0);
+        if (secondPlane != null) {
+            scalePlane(secondPlane, frame, PLANE_LENGTH);
+        } else {
+            Arrays.fill(frame, PLANE_LENGTH, FRAME_LENGTH, 0L);
+        }
+    }
+
+    private void scalePlane(long[] plane, long[] frame, int start) {
+        if (words == 2) {
+            System.arraycopy(plane, 0, frame, start, PLANE_LENGTH);
+            return;
+        }
+        int repeat = MAX_HEIGHT / height;
+        for (int j = 0; j < height; j++) {
+            long row = plane[j];
+            long left = doubleBits((int)(row >>> 32));
+            long right = doubleBits((int)row);
+            for (int k = 0; k < repeat; k++) {
+                int offset = start + (j * repeat + k) * 2;
+                frame[offset] = left;
+                frame[offset + 1] = right;
             }
         }
-        opcode = memory.getOpcode(programCounter);
-        execOpcode();
-        if (needsDrawing) {
-            display.updateGraphics(graphics);
-            display.repaint();
-            needsDrawing = false;
-        }        
+    }
+
+    /**
+     * Returns the given 32 bits with each one repeated, i.e. a row of pixels twice as wide.
+     */
+    private static long doubleBits(int bits) {
+        long x = bits & 0xFFFFFFFFL;
+        x = (x | (x << 16)) & 0x0000FFFF0000FFFFL;
+        x = (x | (x << 8)) & 0x00FF00FF00FF00FFL;
+        x = (x | (x << 4)) & 0x0F0F0F0F0F0F0F0FL;
+        x = (x | (x << 2)) & 0x3333333333333333L;
+        x = (x | (x << 1)) & 0x5555555555555555L;
+        return x | (x << 1);
+    }
+
+    /**
+     * Returns the second plane, allocating it on first use.
+     */
+    private long[] secondPlane() {
+        if (secondPlane == null) {
+            secondPlane = new long[PLANE_LENGTH];
+        }
+        return secondPlane;
+    }
+
+    /**
+     * Returns plane p if planeMask selects it, otherwise null.
+     */
+    private long[] selectedPlane(int p) {
+        if ((planeMask & (1 << p)) == 0) {
+            return null;
+        }
+        return p == 0 ? graphics : secondPlane();
+    }
+
+    /**
+     * Advances past the instruction after the current one. XO-CHIP's F000 NNNN is
+     * twice as long as the rest, so skipping it means skipping four bytes. Only
+     * machines whose memory has grown to the XO-CHIP size look for it.
+     */
+    private void skip() {
+        programCounter += 2;
+        if (memory.getSize() == Memory.XO_MEM_SIZE_IN_BYTES && programCounter + 1 < memory.getSize()
+                && memory.getOpcode(programCounter) == LONG_LOAD) {
+            programCounter += 2;
+        }
+    }
+
+    /**
+     * Switches the display resolution and clears the screen.
+     * @param width - WIDTH or MAX_WIDTH
+     * @param height - HEIGHT or MAX_HEIGHT
+     */
+    private void setResolution(int width, int height) {
+        this.width = width;
+        this.height = height;
+        words = width / 64;
+        if (graphics.length < height * words) {
+            graphics = new long[PLANE_LENGTH];
+        }
+        Arrays.fill(graphics, 0L);
+        if (secondPlane != null) {
+            Arrays.fill(secondPlane, 0L);
+        }
+        needsDrawing = true;
+    }
+
+    /**
+     * Emulates one cycle of the CHIP-8: a single instruction, or a whole compiled block
+     * if the recompiler is enabled and has one for the current address. Drawing is only
+     * presented at the end of runFrame().
+     * @return number of instructions executed
+     */
+    public int cycle() {
+        return step(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Like cycle(), but only runs a compiled block if it fits in the given budget, so a
+     * frame executes exactly as many instructions with the recompiler as without it.
+     * @param budget - most instructions to execute; at least 1
+     * @return number of instructions executed
+     */
+    private int step(int budget) {
+        if (compiler != null) {
+            BlockCompiler.Block block = compiler.lookup(programCounter);
+            if (block != null && block.length <= budget) {
+                indexRegister = (char)block.code.run(registers, indexRegister);
+                programCounter = block.end;
+                return block.length;
+            }
+        }
+        Instruction instruction = memory.getInstruction(programCounter);
+        opcode = instruction.opcode;
+        handlers[instruction.slot].exec(this, instruction);
+        return 1;
     }
 
     /**
      * Performs the task corresponding to the current opcode.
      */
     public void execOpcode() {
-        // System.out.println(String.format("Current opcode: %04x", (int)(opcode)));
-        char opcodeSkeleton = trimOpcode();
-        // System.out.println(String.format("Current skeleton: %04x", (int)(opcodeSkeleton)));
-        opcodeFuncs.get(opcodeSkeleton).exec();
-    }
-
-    /**
-     * Populates the opcodeFuncs map with the opcode "skeletons" and their corresponding
-     * OpcodeFunctions.
-     */
-    private void initializeOpcodes() {
-        opcodeFuncs.put((char)(0x00E0), new ClearDisplay());
-        opcodeFuncs.put((char)(0x00EE), new ReturnFromSubroutine());
-        opcodeFuncs.put((char)(0x1000), new Jump());
-        opcodeFuncs.put((char)(0x2000), new Call());
-        opcodeFuncs.put((char)(0x3000), new SkipIfEqual());
-        opcodeFuncs.put((char)(0x4000), new SkipIfUnequal());
-        opcodeFuncs.put((char)(0x5000), new SkipIfVxEqualsVy());
-        opcodeFuncs.put((char)(0x6000), new LoadKkIntoVx());
-        opcodeFuncs.put((char)(0x7000), new AddVxAndByte());
-        opcodeFuncs.put((char)(0x8000), new LoadVxVy());
-        opcodeFuncs.put((char)(0x8001), new OrVxVy());
-        opcodeFuncs.put((char)(0x8002), new AndVxVy());
-        opcodeFuncs.put((char)(0x8003), new XorVxVy());
-        opcodeFuncs.put((char)(0x8004), new AddVxVy());
-        opcodeFuncs.put((char)(0x8005), new SubVxVy());
-        opcodeFuncs.put((char)(0x8006), new BitShiftRight());
-        opcodeFuncs.put((char)(0x8007), new SubnVxVy());
-        opcodeFuncs.put((char)(0x800E), new BitShiftLeft());
-        opcodeFuncs.put((char)(0x9000), new SNEVxVy());
-        opcodeFuncs.put((char)(0xA000), new SetIToNnn());
-        opcodeFuncs.put((char)(0xB000), new JumpV0());
-        opcodeFuncs.put((char)(0xC000), new Rnd());
-        opcodeFuncs.put((char)(0xD000), new Draw());
-        opcodeFuncs.put((char)(0xE09E), new SkipIfPressed());
-        opcodeFuncs.put((char)(0xE0A1), new SkipIfNotPressed());
-        opcodeFuncs.put((char)(0xF007), new SetVxToDelayTimer());
-        opcodeFuncs.put((char)(0xF00A), new WaitForKeyPress());
-        opcodeFuncs.put((char)(0xF015), new SetDelayTimerToVx());
-        opcodeFuncs.put((char)(0xF018), new SetSoundTimerToVx());
-        opcodeFuncs.put((char)(0xF01E), new AddIAndVx());
-        opcodeFuncs.put((char)(0xF029), new SetIToLocationOfSprite());
-        opcodeFuncs.put((char)(0xF033), new StoreBCDRepresentationOfVx());
-        opcodeFuncs.put((char)(0xF055), new StoreRegistersInMemory());
-        opcodeFuncs.put((char)(0xF065), new StoreMemoryInRegisters());
-    }
-
-    /**
-     * Trims opcode to skeleton and returns skeleton
-     */
-    private char trimOpcode() {
-        if ((opcode & 0xF000) == 0x0000) {
-            return opcode;
-        } else if ((opcode & 0xF000) == 0x8000) {
-            return (char)((opcode & 0xF00F));
-        } else if ((opcode & 0xF000) == 0xF000 || (opcode & 0xF000) == 0xE000) {
-            return (char)(opcode & 0xF0FF);
-        }
-        return (char)(opcode & 0xF000);
-    }
-
-    /**
-     * Interface representing an OpcodeFunction class
+        Instruction instruction = Instruction.decode(opcode);
+        handlers[instruction.slot].exec(this, instruction);
+    }
+
+    /**
+     * Builds a handler table with the OpcodeFunction for each opcode "skeleton".
+     * Instruction.decode maps every 16-bit opcode to one of these slots. Where the quirk
+     * profile changes what an opcode does, the slot gets a handler specialized for it.
+     */
+    private static OpcodeFunction[] createHandlers(QuirkProfile quirks) {
+        OpcodeFunction[] handlers = new OpcodeFunction[Instruction.NUM_OF_SLOTS];
+        register(handlers, (char)(0x00E0), new ClearDisplay());
+        register(handlers, (char)(0x00EE), new ReturnFromSubroutine());
+        register(handlers, (char)(0x1000), new Jump());
+        register(handlers, (char)(0x2000), new Call());
+        register(handlers, (char)(0x3000), new SkipIfEqual());
+        register(handlers, (char)(0x4000), new SkipIfUnequal());
+        register(handlers, (char)(0x5000), new SkipIfVxEqualsVy());
+        register(handlers, (char)(0x6000), new LoadKkIntoVx());
+        register(handlers, (char)(0x7000), new AddVxAndByte());
+        register(handlers, (char)(0x8000), new LoadVxVy());
+        if (quirks.logicResetsVF) {
+            register(handlers, (char)(0x8001), new OrVxVyResetVF());
+            register(handlers, (char)(0x8002), new AndVxVyResetVF());
+            register(handlers, (char)(0x8003), new XorVxVyResetVF());
+        } else {
+            register(handlers, (char)(0x8001), new OrVxVy());
+            register(handlers, (char)(0x8002), new AndVxVy());
+            register(handlers, (char)(0x8003), new XorVxVy());
+        }
+        register(handlers, (char)(0x8004), new AddVxVy());
+        register(handlers, (char)(0x8005), new SubVxVy());
+        register(handlers, (char)(0x8006), quirks.shiftsVy ? new ShiftVyRight() : new BitShiftRight());
+        register(handlers, (char)(0x8007), new SubnVxVy());
+        register(handlers, (char)(0x800E), quirks.shiftsVy ? new ShiftVyLeft() : new BitShiftLeft());
+        register(handlers, (char)(0x9000), new SNEVxVy());
+        register(handlers, (char)(0xA000), new SetIToNnn());
+        register(handlers, (char)(0xB000), quirks.jumpsWithVx ? new JumpVx() : new JumpV0());
+        register(handlers, (char)(0xC000), new Rnd());
+        if (quirks.drawWaitsForFrame) {
+            register(handlers, (char)(0xD000), new ClippedDrawAndWait());
+        } else if (quirks.clipsSprites) {
+            register(handlers, (char)(0xD000), new ClippedDraw());
+        } else {
+            register(handlers, (char)(0xD000), new Draw());
+        }
+        register(handlers, (char)(0xE09E), new SkipIfPressed());
+        register(handlers, (char)(0xE0A1), new SkipIfNotPressed());
+        register(handlers, (char)(0xF007), new SetVxToDelayTimer());
+        register(handlers, (char)(0xF00A), new WaitForKeyPress());
+        register(handlers, (char)(0xF015), new SetDelayTimerToVx());
+        register(handlers, (char)(0xF018), new SetSoundTimerToVx());
+        register(handlers, (char)(0xF01E), new AddIAndVx());
+        register(handlers, (char)(0xF029), new SetIToLocationOfSprite());
+        register(handlers, (char)(0xF033), new StoreBCDRepresentationOfVx());
+        if (quirks.indexIncrement == QuirkProfile.IndexIncrement.NONE) {
+            register(handlers, (char)(0xF055), new StoreRegistersInMemory());
+            register(handlers, (char)(0xF065), new StoreMemoryInRegisters());
+        } else {
+            int extra = quirks.indexIncrement == QuirkProfile.IndexIncrement.X_PLUS_ONE ? 1 : 0;
+            register(handlers, (char)(0xF055), new StoreRegistersInMemoryAndAdvanceI(extra));
+            register(handlers, (char)(0xF065), new StoreMemoryInRegistersAndAdvanceI(extra));
+        }
+        register(handlers, (char)(0x00C0), new ScrollDown());
+        register(handlers, (char)(0x00FB), new ScrollRight());
+        register(handlers, (char)(0x00FC), new ScrollLeft());
+        register(handlers, (char)(0x00FD), new Exit());
+        register(handlers, (char)(0x00FE), new LowResolution());
+        register(handlers, (char)(0x00FF), new HighResolution());
+        register(handlers, (char)(0xF030), new SetIToLocationOfLargeSprite());
+        register(handlers, (char)(0xF075), new StoreRegistersInFlags());
+        register(handlers, (char)(0xF085), new StoreFlagsInRegisters());
+        register(handlers, (char)(0x0230), new ClearDisplay());
+        register(handlers, (char)(0x00D0), new ScrollUp());
+        register(handlers, (char)(0x5002), new SaveRange());
+        register(handlers, (char)(0x5003), new LoadRange());
+        register(handlers, (char)(0xF000), new LongLoadI());
+        register(handlers, (char)(0xF001), new SelectPlanes());
+        register(handlers, (char)(0xF002), new LoadAudioPattern());
+        register(handlers, (char)(0xF03A), new SetPitch());
+        handlers[Instruction.UNKNOWN] = new UnknownOpcode();
+        return handlers;
+    }
+
+    /**
+     * Places the given OpcodeFunction in the slot of the given skeleton.
+     * @throws IllegalArgumentException if skeleton is not in Instruction.SKELETONS
+     */
+    private static void register(OpcodeFunction[] handlers, char skeleton, OpcodeFunction function) {
+        int slot = Instruction.slotOf(skeleton);
+        if (slot == Instruction.UNKNOWN) {
+            throw new IllegalArgumentException(String.format("No slot for skeleton %04x!", (int)skeleton));
+        }
+        handlers[slot] = function;
+    }
+
+    /**
+     * Returns the next byte from the xorshift64* generator.
+     */
+    private byte nextRandomByte() {
+        long x = rngState;
+        x ^= x >>> 12;
+        x ^= x << 25;
+        x ^= x >>> 27;
+        rngState = x;
+        return (byte)((x * 0x2545F4914F6CDD1DL) >>> 56);
+    }
+
+    /**
+     * Returns whether a jump from programCounter to the given target closes a loop that
+     * can't exit before the next frame: a jump to itself, a key poll (Ex9E/ExA1 then
+     * jump back), or a delay timer poll (Fx07, then 3xkk/4xkk on the same Vx, then jump
+     * back).
+     */
+    private boolean isIdleLoop(char target) {
+        if (target == programCounter) {
+            return true;
+        } else if (target == programCounter - 2) {
+            int poll = memory.getInstruction(target).opcode & 0xF0FF;
+            return poll == 0xE09E || poll == 0xE0A1;
+        } else if (target == programCounter - 4) {
+            Instruction read = memory.getInstruction(target);
+            Instruction test = memory.getInstruction((char)(target + 2));
+            int testKind = test.opcode & 0xF000;
+            return (read.opcode & 0xF0FF) == 0xF007 && (testKind == 0x3000 || testKind == 0x4000)
+                   && test.x == read.x;
+        }
+        return false;
+    }
+
+    /**
+     * Interface representing an OpcodeFunction class. Implementations are stateless and
+     * shared between machines, so everything they act on comes from chip8.
      */
     private interface OpcodeFunction {
         /**
          * Run the opcode.
+         * @param chip8 - machine to run it on
+         * @param ins - decoded form of the opcode
          */
-        public void exec();
+        public void exec(Chip8 chip8, Instruction ins);
+    }
+
+    /**
+     * Any opcode without a handler.
+     */
+    private static class UnknownOpcode implements OpcodeFunction {
+        public void exec(Chip8 chip8, Instruction ins) {
+            throw new IllegalStateException(String.format("Unknown opcode %04x at %04x!",
+                                                          (int)ins.opcode, (int)chip8.programCounter));
+        }
     }
 
     /**
-     * 00E0
-     * Clears the display.
+     * 00E0 (and 0230 in VIP hires ROMs)
+     * Clears the display, or on XO-CHIP the selected planes.
      */
-    private class ClearDisplay implements OpcodeFunction {
-        public void exec() {
-            System.out.println("Clearing screen!");
-            for (int i = 0; i < graphics.length; i++) {
-                for (int j = 0; j < graphics[i].length; j++) {
-                    graphics[i][j] = 0x00;
+    private static class ClearDisplay implements OpcodeFunction {
+        public void exec(Chip8 chip8, Instruction ins) {
+            for (int p = 0; p < 2; p++) {
+                long[] plane = chip8.selectedPlane(p);
+                if (plane != null) {
+                    Arrays.fill(plane, 0, chip8.height * chip8.words, 0L);
                 }
             }
-            needsDrawing = true;
-            programCounter += 2;
+            chip8.needsDrawing = true;
+            chip8.programCounter += 2;
         }
     }
 
@@ -180,11 +884,11 @@ public class Chip8 {
      * The interpreter sets the program counter to the address at the top of the stack,
      * then subtracts 1 from the stack pointer.
      */
-    private class ReturnFromSubroutine implements OpcodeFunction {
-        public void exec() {
+    private static class ReturnFromSubroutine implements OpcodeFunction {
+        public void exec(Chip8 chip8, Instruction ins) {
             // System.out.println(String.format("Returning to address %04x", (int)stack[stackPointer]));
-            programCounter = (char)(stack[stackPointer] + 2);
-            stackPointer--;
+            chip8.programCounter = (char)(chip8.stack[chip8.stackPointer] + 2);
+            chip8.stackPointer--;
         }
     }
 
@@ -194,11 +898,20 @@ public class Chip8 {
      * The interpreter sets the program counter to nnn,
      * since the programCounter is then incremented
      */
-    private class Jump implements OpcodeFunction {
-        public void exec() {
-            char nnn = (char)(opcode & 0x0FFF);
-            // System.out.println(String.format("Jumping to %04x", (int)nnn));
-            programCounter = nnn;
+    private static class Jump implements OpcodeFunction {
+        public void exec(Chip8 chip8, Instruction ins) {
+            // System.out.println(String.format("Jumping to %04x", (int)ins.nnn));
+            if (chip8.programCounter == Memory.START_ADDRESS && ins.nnn == VIP_HIRES_ENTRY) {
+                // VIP two-page hires ROMs begin by jumping into their own copy of the
+                // interpreter, which switches to 64x64 and starts the program at 0x2C0.
+                chip8.setResolution(WIDTH, MAX_HEIGHT);
+                chip8.programCounter = VIP_HIRES_START;
+                return;
+            }
+            if (ins.nnn <= chip8.programCounter && ins.nnn >= chip8.programCounter - 4) {
+                chip8.idle = chip8.isIdleLoop(ins.nnn);
+            }
+            chip8.programCounter = ins.nnn;
         }
     }
 
@@ -208,13 +921,12 @@ public class Chip8 {
      * The implementer increments the SP, and then puts the current PC on top of the stack.
      * The PC is then set to nnn.
      */
-    private class Call implements OpcodeFunction {
-        public void exec() {
-            char nnn = (char)(opcode & 0x0FFF);
-            stackPointer++;
-            // System.out.println(String.format("Calling and setting SP to %04x", (int)nnn));
-            stack[stackPointer] = programCounter;
-            programCounter = nnn;
+    private static class Call implements OpcodeFunction {
+        public void exec(Chip8 chip8, Instruction ins) {
+            chip8.stackPointer++;
+            // System.out.println(String.format("Calling and setting SP to %04x", (int)ins.nnn));
+            chip8.stack[chip8.stackPointer] = chip8.programCounter;
+            chip8.programCounter = ins.nnn;
         }
     }
 
@@ -223,16 +935,14 @@ public class Chip8 {
      * Skip next instruction if Vx = kk.
      * Compare Vx to kk, if equal, increments pc by 2.
      */
-    private class SkipIfEqual implements OpcodeFunction {
-        public void exec() {
-            byte x = (byte)((opcode & 0x0F00) >> 8);
-            byte kk = (byte)(opcode & 0x00FF);
-            // System.out.println(String.format("%08x", kk));
-            // System.out.println(String.format("%08x", registers[x]));
-            if (registers[x] == kk) {
-                programCounter += 2;
+    private static class SkipIfEqual implements OpcodeFunction {
+        public void exec(Chip8 chip8, Instruction ins) {
+            // System.out.println(String.format("%08x", ins.kk));
+            // System.out.println(String.format("%08x", registers[ins.x]));
+            if (chip8.registers[ins.x] == ins.kk) {
+                chip8.skip();
             }
-            programCounter += 2;
+            chip8.programCounter += 2;
         }
     }
 
@@ -241,14 +951,12 @@ public class Chip8 {
      * Skip next instruction if Vx != kk
      * Compare Vx to kk, if unequal, increments pc by 2.
      */
-    private class SkipIfUnequal implements OpcodeFunction {
-        public void exec() {
-            byte x = (byte)((opcode & 0x0F00) >> 8);
-            byte kk = (byte)(opcode & 0x00FF);
-            if (registers[x] != kk) {
-                programCounter += 2;
+    private static class SkipIfUnequal implements OpcodeFunction {
+        public void exec(Chip8 chip8, Instruction ins) {
+            if (chip8.registers[ins.x] != ins.kk) {
+                chip8.skip();
             }
-            programCounter += 2;
+            chip8.programCounter += 2;
         }
     }
 
@@ -258,14 +966,12 @@ public class Chip8 {
      * The interpreter compares register Vx to register Vy,
      * and if they are equal, increments the program counter by 2.
      */
-    private class SkipIfVxEqualsVy implements OpcodeFunction {
-        public void exec() {
-            byte x = (byte)((opcode & 0x0F00) >> 8);
-            byte y = (byte)((opcode & 0x00F0) >> 4);
-            if (registers[x] == registers[y]) {
-                programCounter += 2;
+    private static class SkipIfVxEqualsVy implements OpcodeFunction {
+        public void exec(Chip8 chip8, Instruction ins) {
+            if (chip8.registers[ins.x] == chip8.registers[ins.y]) {
+                chip8.skip();
             }
-            programCounter += 2;
+            chip8.programCounter += 2;
         }
     }
 
@@ -274,12 +980,10 @@ public class Chip8 {
      * Set Vx = kk.
      * The interpreter puts the value kk into register Vx.
      */
-    private class LoadKkIntoVx implements OpcodeFunction {
-        public void exec() {
-            byte kk = (byte)(opcode & 0x00FF);
-            byte x = (byte)((opcode & 0x0F00) >> 8);
-            registers[x] = kk;
-            programCounter += 2;
+    private static class LoadKkIntoVx implements OpcodeFunction {
+        public void exec(Chip8 chip8, Instruction ins) {
+            chip8.registers[ins.x] = ins.kk;
+            chip8.programCounter += 2;
         }
     }
 
@@ -288,12 +992,10 @@ public class Chip8 {
      * Set Vx = Vx + kk
      * Adds the value kk to the value of register Vx, then stores the result in Vx.
      */
-    private class AddVxAndByte implements OpcodeFunction {
-        public void exec() {
-            byte x = (byte)((opcode & 0x0F00) >> 8);
-            byte kk = (byte)(opcode & 0x00FF);
-            registers[x] += kk;
-            programCounter += 2;
+    private static class AddVxAndByte implements OpcodeFunction {
+        public void exec(Chip8 chip8, Instruction ins) {
+            chip8.registers[ins.x] += ins.kk;
+            chip8.programCounter += 2;
         }
     }
 
@@ -302,12 +1004,10 @@ public class Chip8 {
      * Set Vx = Vy.
      * Stores value of register Vy in register Vx.
      */
-    private class LoadVxVy implements OpcodeFunction {
-        public void exec() {
-            byte x = (byte)((opcode & 0x0F00) >> 8);
-            byte y = (byte)((opcode & 0x00F0) >> 4);
-            registers[x] = registers[y];
-            programCounter += 2;
+    private static class LoadVxVy implements OpcodeFunction {
+        public void exec(Chip8 chip8, Instruction ins) {
+            chip8.registers[ins.x] = chip8.registers[ins.y];
+            chip8.programCounter += 2;
         }
     }
 
@@ -320,12 +1020,10 @@ public class Chip8 {
      * and if either bit is 1, then the same bit in the result is also 1.
      * Otherwise, it is 0.
      */
-    private class OrVxVy implements OpcodeFunction {
-        public void exec() {
-            byte x = (byte)((opcode & 0x0F00) >> 8);
-            byte y = (byte)((opcode & 0x00F0) >> 4);
-            registers[x] |= registers[y];
-            programCounter += 2;
+    private static class OrVxVy implements OpcodeFunction {
+        public void exec(Chip8 chip8, Instruction ins) {
+            chip8.registers[ins.x] |= chip8.registers[ins.y];
+            chip8.programCounter += 2;
         }
     }
 
@@ -336,12 +1034,10 @@ public class Chip8 {
      * then stores the result in Vx. A bitwise AND compares the corrseponding bits from two values,
      * and if both bits are 1, then the same bit in the result is also 1. Otherwise, it is 0.
      */
-    private class AndVxVy implements OpcodeFunction {
-        public void exec() {
-            byte x = (byte)((opcode & 0x0F00) >> 8);
-            byte y = (byte)((opcode & 0x00F0) >> 4);
-            registers[x] &= registers[y];
-            programCounter += 2;
+    private static class AndVxVy implements OpcodeFunction {
+        public void exec(Chip8 chip8, Instruction ins) {
+            chip8.registers[ins.x] &= chip8.registers[ins.y];
+            chip8.programCounter += 2;
         }
     }
 
@@ -349,12 +1045,40 @@ public class Chip8 {
      * 8xy3 - XOR Vx, Vy
      * Set Vx = Vx XOR Vy.
      */
-    private class XorVxVy implements OpcodeFunction {
-        public void exec() {
-            byte x = (byte)((opcode & 0x0F00) >> 8);
-            byte y = (byte)((opcode & 0x00F0) >> 4);
-            registers[x] ^= registers[y];
-            programCounter += 2;
+    private static class XorVxVy implements OpcodeFunction {
+        public void exec(Chip8 chip8, Instruction ins) {
+            chip8.registers[ins.x] ^= chip8.registers[ins.y];
+            chip8.programCounter += 2;
+        }
+    }
+
+    /**
+     * 8xy1 on the COSMAC VIP, whose logic ops left VF = 0.
+     */
+    private static class OrVxVyResetVF extends OrVxVy {
+        public void exec(Chip8 chip8, Instruction ins) {
+            super.exec(chip8, ins);
+            chip8.registers[0xF] = 0;
+        }
+    }
+
+    /**
+     * 8xy2 on the COSMAC VIP, whose logic ops left VF = 0.
+     */
+    private static class AndVxVyResetVF extends AndVxVy {
+        public void exec(Chip8 chip8, Instruction ins) {
+            super.exec(chip8, ins);
+            chip8.registers[0xF] = 0;
+        }
+    }
+
+    /**
+     * 8xy3 on the COSMAC VIP, whose logic ops left VF = 0.
+     */
+    private static class XorVxVyResetVF extends XorVxVy {
+        public void exec(Chip8 chip8, Instruction ins) {
+            super.exec(chip8, ins);
+            chip8.registers[0xF] = 0;
         }
     }
 
@@ -362,21 +1086,19 @@ public class Chip8 {
      * 8xy4 - ADD Vx, Vy
      * Set Vx = Vx + Vy, Set VF = carry
      */
-    private class AddVxVy implements OpcodeFunction {
-        public void exec() {
-            int x = ((opcode & 0x0F00) >> 8);
-            int y = ((opcode & 0x00F0) >> 4);
-            char sum = (char)(registers[x] + registers[y]); // i love unsigned 16 bit ints.
-            // System.out.println(String.format("x: %02x", registers[x]));
-            // System.out.println(String.format("y: %02x", registers[y]));
+    private static class AddVxVy implements OpcodeFunction {
+        public void exec(Chip8 chip8, Instruction ins) {
+            char sum = (char)(chip8.registers[ins.x] + chip8.registers[ins.y]); // i love unsigned 16 bit ints.
+            // System.out.println(String.format("x: %02x", registers[ins.x]));
+            // System.out.println(String.format("y: %02x", registers[ins.y]));
             // System.out.println(String.format("sum: %04x OR ", (int)sum) + (int)sum);
             if (sum > 255) {
-                registers[0xF] = 1;
+                chip8.registers[0xF] = 1;
             } else {
-                registers[0xF] = 0;
+                chip8.registers[0xF] = 0;
             }
-            registers[x] = (byte)(sum & 0xFF);
-            programCounter += 2;
+            chip8.registers[ins.x] = (byte)(sum & 0xFF);
+            chip8.programCounter += 2;
         }
     }
 
@@ -385,17 +1107,15 @@ public class Chip8 {
      * Set Vx = Vx - Vy, set VF = NOT Borrow
      * If Vx > Vy, VF set to 1. 
      */
-    private class SubVxVy implements OpcodeFunction {
-        public void exec() {
-            int x = ((opcode & 0x0F00) >> 8);
-            int y = ((opcode & 0x00F0) >> 4);
-            if (registers[x] > registers[y]) {
-                registers[0xF] = 1;
+    private static class SubVxVy implements OpcodeFunction {
+        public void exec(Chip8 chip8, Instruction ins) {
+            if (chip8.registers[ins.x] > chip8.registers[ins.y]) {
+                chip8.registers[0xF] = 1;
             } else {
-                registers[0xF] = 0;
+                chip8.registers[0xF] = 0;
             }
-            registers[x] -= registers[y];
-            programCounter += 2;
+            chip8.registers[ins.x] -= chip8.registers[ins.y];
+            chip8.programCounter += 2;
         }       
     }
 
@@ -405,36 +1125,46 @@ public class Chip8 {
      * If least significant bit of Vx is 1, VF = 1, otherwise 0.
      * Vx then divided by 2.
      */
-    private class BitShiftRight implements OpcodeFunction {
-        public void exec() {
-            byte x = (byte)((opcode & 0x0F00) >>> 8);
-            // System.out.println(String.format("%04x is registers[x]", registers[x]));
-            registers[0xF] = (byte)(registers[x] & 0x1);
+    private static class BitShiftRight implements OpcodeFunction {
+        public void exec(Chip8 chip8, Instruction ins) {
+            // System.out.println(String.format("%04x is registers[ins.x]", registers[ins.x]));
+            chip8.registers[0xF] = (byte)(chip8.registers[ins.x] & 0x1);
             // System.out.println(String.format("%04x is registers[0xF]", registers[0xF]));
-            registers[x] = (byte)((registers[x] & 0xFF) >>> 1);
+            chip8.registers[ins.x] = (byte)((chip8.registers[ins.x] & 0xFF) >>> 1);
             // System.out.println("Dividing!");
-            // System.out.println(String.format("%04x is registers[x] post division", registers[x]));
-            programCounter += 2;
+            // System.out.println(String.format("%04x is registers[ins.x] post division", registers[ins.x]));
+            chip8.programCounter += 2;
         }   
     }
 
+    /**
+     * 8xy6 on the COSMAC VIP
+     * Set Vx = Vy SHR 1, VF = the bit shifted out.
+     */
+    private static class ShiftVyRight implements OpcodeFunction {
+        public void exec(Chip8 chip8, Instruction ins) {
+            byte value = chip8.registers[ins.y];
+            chip8.registers[0xF] = (byte)(value & 0x1);
+            chip8.registers[ins.x] = (byte)((value & 0xFF) >>> 1);
+            chip8.programCounter += 2;
+        }
+    }
+
     /**
      * 8xy7 - SUBN Vx, Vy
      * Set Vx = Vy - Vx, set VF = NOT borrow.
      * If Vy > Vx, then VF is set to 1, otherwise 0.
      * Then Vx is subtracted from Vy, and the results stored in Vx.
      */
-    private class SubnVxVy implements OpcodeFunction {
-        public void exec() {
-            byte x = (byte)((opcode & 0x0F00) >>> 8);
-            byte y = (byte)((opcode & 0x00F0) >>> 4);
-            if (registers[y] > registers[x]) {
-                registers[0xF] = 1;
+    private static class SubnVxVy implements OpcodeFunction {
+        public void exec(Chip8 chip8, Instruction ins) {
+            if (chip8.registers[ins.y] > chip8.registers[ins.x]) {
+                chip8.registers[0xF] = 1;
             } else {
-                registers[0xF] = 0;
+                chip8.registers[0xF] = 0;
             }
-            registers[x] -= registers[y];
-            programCounter += 2;
+            chip8.registers[ins.x] -= chip8.registers[ins.y];
+            chip8.programCounter += 2;
         }
     }
 
@@ -444,19 +1174,31 @@ public class Chip8 {
      * If the most-significant bit of Vx is 1, then VF is set to 1, otherwise to 0.
      * Then Vx is multiplied by 2.
      */
-    private class BitShiftLeft implements OpcodeFunction {
-        public void exec() {
-            int x = (byte)((opcode & 0x0F00) >> 8);
-            // System.out.println(String.format("registers[x] is %02x", (registers[x])));
-            registers[0xF] = (byte)((registers[x] >> 7) & 0x01);
+    private static class BitShiftLeft implements OpcodeFunction {
+        public void exec(Chip8 chip8, Instruction ins) {
+            // System.out.println(String.format("registers[ins.x] is %02x", (registers[ins.x])));
+            chip8.registers[0xF] = (byte)((chip8.registers[ins.x] >> 7) & 0x01);
             // System.out.println("MOST SIGNIFICANT BIT: " + String.format("%04x", registers[0xF]));
-            // System.out.println(String.format("%02x is old registers[x]", registers[x]));
-            registers[x] = (byte)(registers[x] << 1);
+            // System.out.println(String.format("%02x is old registers[ins.x]", registers[ins.x]));
+            chip8.registers[ins.x] = (byte)(chip8.registers[ins.x] << 1);
             // System.out.println(String.format("%02x is registers[F]", registers[0xF]));
-            // System.out.println(String.format("%02x is registers[x]", registers[x]));
-            // (byte)((registers[x] << 1) & 0xFF);
-            // System.out.println(String.format("%04x", (byte)registers[x]));
-            programCounter += 2;
+            // System.out.println(String.format("%02x is registers[ins.x]", registers[ins.x]));
+            // (byte)((registers[ins.x] << 1) & 0xFF);
+            // System.out.println(String.format("%04x", (byte)registers[ins.x]));
+            chip8.programCounter += 2;
+        }
+    }
+
+    /**
+     * 8xyE on the COSMAC VIP
+     * Set Vx = Vy SHL 1, VF = the bit shifted out.
+     */
+    private static class ShiftVyLeft implements OpcodeFunction {
+        public void exec(Chip8 chip8, Instruction ins) {
+            byte value = chip8.registers[ins.y];
+            chip8.registers[0xF] = (byte)((value >> 7) & 0x01);
+            chip8.registers[ins.x] = (byte)(value << 1);
+            chip8.programCounter += 2;
         }
     }
 
@@ -466,14 +1208,12 @@ public class Chip8 {
      * The values of Vx and Vy are compared, and if they are not equal,
      * the program counter is increased by 2.
      */
-    private class SNEVxVy implements OpcodeFunction {
-        public void exec() {
-            byte x = (byte)((opcode & 0x0F00) >>> 8);
-            byte y = (byte)((opcode & 0x00F0) >>> 4);
-            if (registers[x] != registers[y]) {
-                programCounter += 2;
+    private static class SNEVxVy implements OpcodeFunction {
+        public void exec(Chip8 chip8, Instruction ins) {
+            if (chip8.registers[ins.x] != chip8.registers[ins.y]) {
+                chip8.skip();
             }
-            programCounter += 2;
+            chip8.programCounter += 2;
         }
     }
 
@@ -482,11 +1222,10 @@ public class Chip8 {
      * Set I = nnn
      * Value of register I is set to nnn.
      */
-    private class SetIToNnn implements OpcodeFunction {
-        public void exec() {
-            char nnn = (char)((opcode & 0x0FFF));
-            indexRegister = nnn;
-            programCounter += 2;
+    private static class SetIToNnn implements OpcodeFunction {
+        public void exec(Chip8 chip8, Instruction ins) {
+            chip8.indexRegister = ins.nnn;
+            chip8.programCounter += 2;
         }
     }
 
@@ -495,10 +1234,19 @@ public class Chip8 {
      * Jump to location nnn + V0
      * Program counter set to nnn plus the value of V0.
      */
-    private class JumpV0 implements OpcodeFunction {
-        public void exec() {
-            char nnn = (char)(opcode & 0x0FFF);
-            programCounter = (char)(nnn + registers[0]);
+    private static class JumpV0 implements OpcodeFunction {
+        public void exec(Chip8 chip8, Instruction ins) {
+            chip8.programCounter = (char)(ins.nnn + chip8.registers[0]);
+        }
+    }
+
+    /**
+     * Bxnn - JP Vx, addr (CHIP-48 and SUPER-CHIP)
+     * Jump to location xnn + Vx.
+     */
+    private static class JumpVx implements OpcodeFunction {
+        public void exec(Chip8 chip8, Instruction ins) {
+            chip8.programCounter = (char)(ins.nnn + Byte.toUnsignedInt(chip8.registers[ins.x]));
         }
     }
 
@@ -506,14 +1254,11 @@ public class Chip8 {
      * Cxkk - RND Vx, byte
      * Set Vx = random byte AND kk
      */
-    private class Rnd implements OpcodeFunction {
-        public void exec() {
-            Random r = new Random();
-            byte randByte = (byte)(r.nextInt(256));
-            byte kk = (byte)(opcode & 0x00FF);
-            byte x = (byte)((opcode & 0x0F00) >>> 8);
-            registers[x] = (byte)(kk & randByte);
-            programCounter += 2;
+    private static class Rnd implements OpcodeFunction {
+        public void exec(Chip8 chip8, Instruction ins) {
+            byte randByte = chip8.nextRandomByte();
+            chip8.registers[ins.x] = (byte)(ins.kk & randByte);
+            chip8.programCounter += 2;
         }
     }
 
@@ -525,31 +1270,126 @@ public class Chip8 {
      * Sprites are XORed onto the existing screen. If this causes any pixels to be erased,
      * VF is set to 1, otherwise it is set to 0. If the sprite is positioned so part of it
      * is outside the coordinates of the display, it wraps around to the opposite side of the screen.
+     * Dxy0 draws a 16x16 sprite of 32 bytes, as on SUPER-CHIP. With both XO-CHIP planes
+     * selected, the sprite for the second plane follows the first's in memory.
      */
-    private class Draw implements OpcodeFunction {
-        public void exec() {
-            int n = (opcode & 0x00F);
-            int x = (opcode & 0xF00) >>> 8;
-            int y = (opcode & 0x0F0) >>> 4;
-            int xVal = registers[x] % 64;
-            int yVal = registers[y] % 32;
-
-            registers[0xF] = 0;
-            for (int row = 0; row < n; row++) {
-                // System.out.println(String.format("indexRegister pointing to %04x", (int)indexRegister));
-                byte pixel = memory.read((char)(indexRegister + row));
-                for (int col = 0; col < 8; col++) {
-                    int bit = pixel & (0b10000000 >>> col);
-                    if (bit != 0) { // we need to draw
-                        if (graphics[xVal + col][yVal + row] != 0) { // pixel already taken
-                            registers[0xF] = 1;                            
-                        }
-                        graphics[xVal + col][yVal + row] ^= 1;
-                        needsDrawing = true;
+    private static class Draw implements OpcodeFunction {
+        public void exec(Chip8 chip8, Instruction ins) {
+            int xVal = Byte.toUnsignedInt(chip8.registers[ins.x]) % chip8.width;
+            int yVal = Byte.toUnsignedInt(chip8.registers[ins.y]) % chip8.height;
+            // Dxy0 draws a 16x16 sprite, two bytes per row
+            int rows = ins.n == 0 ? 16 : ins.n;
+            int bytesPerRow = ins.n == 0 ? 2 : 1;
+
+            // each selected plane takes the next sprite's worth of bytes from I
+            long collision = 0;
+            char address = chip8.indexRegister;
+            for (int p = 0; p < 2; p++) {
+                long[] plane = chip8.selectedPlane(p);
+                if (plane != null) {
+                    collision |= drawSprite(chip8, plane, address, xVal, yVal, rows, bytesPerRow);
+                    address += rows * bytesPerRow;
+                }
+            }
+            chip8.registers[0xF] = (byte)(collision != 0 ? 1 : 0);
+            chip8.needsDrawing = true;
+            chip8.programCounter += 2;
+        }
+
+        /**
+         * XORs a sprite onto one plane.
+         * @return non-zero if any pixel was erased
+         */
+        long drawSprite(Chip8 chip8, long[] plane, char address, int xVal, int yVal, int rows, int bytesPerRow) {
+            int shift = 64 - 8 * bytesPerRow;
+            long collision = 0;
+            for (int row = 0; row < rows; row++) {
+                long bits = chip8.memory.read(address) & 0xFFL;
+                if (bytesPerRow == 2) {
+                    bits = (bits << 8) | (chip8.memory.read((char)(address + 1)) & 0xFFL);
+                }
+                address += bytesPerRow;
+                int y = (yVal + row) % chip8.height;
+                if (chip8.words == 1) {
+                    long sprite = Long.rotateRight(bits << shift, xVal);
+                    collision |= plane[y] & sprite;
+                    plane[y] ^= sprite;
+                } else {
+                    // rotate the sprite right by xVal across the row's two words
+                    long left = bits << shift;
+                    long right = 0;
+                    int x = xVal;
+                    if (x >= 64) {
+                        right = left;
+                        left = 0;
+                        x -= 64;
                     }
+                    if (x != 0) {
+                        long carry = right << (64 - x);
+                        right = (right >>> x) | (left << (64 - x));
+                        left = (left >>> x) | carry;
+                    }
+                    int offset = y * 2;
+                    collision |= (plane[offset] & left) | (plane[offset + 1] & right);
+                    plane[offset] ^= left;
+                    plane[offset + 1] ^= right;
                 }
             }
-            programCounter += 2;
+            return collision;
+        }
+    }
+
+    /**
+     * Dxyn on interpreters that clip sprites at the screen edges. Only the sprite's
+     * starting position wraps.
+     */
+    private static class ClippedDraw extends Draw {
+        long drawSprite(Chip8 chip8, long[] plane, char address, int xVal, int yVal, int rows, int bytesPerRow) {
+            int shift = 64 - 8 * bytesPerRow;
+            long collision = 0;
+            for (int row = 0; row < rows && yVal + row < chip8.height; row++) {
+                long bits = chip8.memory.read(address) & 0xFFL;
+                if (bytesPerRow == 2) {
+                    bits = (bits << 8) | (chip8.memory.read((char)(address + 1)) & 0xFFL);
+                }
+                address += bytesPerRow;
+                int y = yVal + row;
+                if (chip8.words == 1) {
+                    long sprite = (bits << shift) >>> xVal;
+                    collision |= plane[y] & sprite;
+                    plane[y] ^= sprite;
+                } else {
+                    // shift the sprite right by xVal across the row's two words
+                    long left = bits << shift;
+                    long right = 0;
+                    int x = xVal;
+                    if (x >= 64) {
+                        right = left;
+                        left = 0;
+                        x -= 64;
+                    }
+                    if (x != 0) {
+                        right = (right >>> x) | (left << (64 - x));
+                        left >>>= x;
+                    }
+                    int offset = y * 2;
+                    collision |= (plane[offset] & left) | (plane[offset + 1] & right);
+                    plane[offset] ^= left;
+                    plane[offset + 1] ^= right;
+                }
+            }
+            return collision;
+        }
+    }
+
+    /**
+     * Dxyn on the COSMAC VIP, which clipped sprites and drew in the display interrupt,
+     * so the program continues only on the next frame.
+     */
+    private static class ClippedDrawAndWait extends ClippedDraw {
+        public void exec(Chip8 chip8, Instruction ins) {
+            super.exec(chip8, ins);
+            chip8.idle = true;
         }
     }
 
@@ -559,13 +1399,12 @@ public class Chip8 {
      * Checks the keyboard, and if the key corresponding to the value of Vx is currently in the down position,
      * PC is increased by 2.
      */
-    private class SkipIfPressed implements OpcodeFunction {
-        public void exec() {
-            byte x = (byte)((opcode & 0x0F00) >>> 8);
-            if (pressed[x]) {
-                programCounter += 2;
+    private static class SkipIfPressed implements OpcodeFunction {
+        public void exec(Chip8 chip8, Instruction ins) {
+            if ((chip8.keys & (1 << (chip8.registers[ins.x] & 0xF))) != 0) {
+                chip8.skip();
             }
-            programCounter += 2;
+            chip8.programCounter += 2;
         }
     }
 
@@ -575,13 +1414,12 @@ public class Chip8 {
      * Checks the keyboard, and if the key corresponding to the value of Vx is
      * currently in the up position, PC is increased by 2.
      */
-    private class SkipIfNotPressed implements OpcodeFunction {
-        public void exec() {
-            byte x = (byte)((opcode & 0x0F00) >>> 8);
-            if (!pressed[x]) {
-                programCounter += 2;
+    private static class SkipIfNotPressed implements OpcodeFunction {
+        public void exec(Chip8 chip8, Instruction ins) {
+            if ((chip8.keys & (1 << (chip8.registers[ins.x] & 0xF))) == 0) {
+                chip8.skip();
             }
-            programCounter += 2;
+            chip8.programCounter += 2;
         }
     }
 
@@ -590,11 +1428,10 @@ public class Chip8 {
      * Set Vx = delay timer value.
      * The value of DT is placed into Vx.
      */
-    private class SetVxToDelayTimer implements OpcodeFunction {
-        public void exec() {
-            int x = (opcode & 0x0F00) >> 8;
-            registers[x] = (byte)(delayRegister & 0xFF);
-            programCounter += 2;
+    private static class SetVxToDelayTimer implements OpcodeFunction {
+        public void exec(Chip8 chip8, Instruction ins) {
+            chip8.registers[ins.x] = (byte)(chip8.delayRegister & 0xFF);
+            chip8.programCounter += 2;
         }
     }
 
@@ -603,15 +1440,13 @@ public class Chip8 {
      * Wait for a key press, store the value of the key in Vx.
      * All execution stops until a key is pressed, then the value of that key is stored in Vx.
      */
-    private class WaitForKeyPress implements OpcodeFunction {
-        public void exec() {
-            int x = (opcode & 0x0F00) >> 8;
-            for (int i = 0; i < pressed.length; i++) {
-                if (pressed[i]) {
-                    registers[x] = (byte)i;
-                    programCounter += 2;
-                    return;
-                }
+    private static class WaitForKeyPress implements OpcodeFunction {
+        public void exec(Chip8 chip8, Instruction ins) {
+            if (chip8.keys != 0) {
+                chip8.registers[ins.x] = (byte)Integer.numberOfTrailingZeros(chip8.keys);
+                chip8.programCounter += 2;
+            } else {
+                chip8.idle = true;
             }
         }
     }
@@ -621,11 +1456,10 @@ public class Chip8 {
      * Set delay timer = Vx.
      * DT is set equal to the value of Vx.
      */
-    private class SetDelayTimerToVx implements OpcodeFunction {
-        public void exec() {
-            int x = (opcode & 0x0F00) >> 8;
-            delayRegister = Byte.toUnsignedInt(registers[x]);
-            programCounter += 2;
+    private static class SetDelayTimerToVx implements OpcodeFunction {
+        public void exec(Chip8 chip8, Instruction ins) {
+            chip8.delayRegister = Byte.toUnsignedInt(chip8.registers[ins.x]);
+            chip8.programCounter += 2;
         }
     }
 
@@ -634,11 +1468,14 @@ public class Chip8 {
      * Set sound timer = Vx.
      * ST is set equal to the value of Vx.
      */
-    private class SetSoundTimerToVx implements OpcodeFunction {
-        public void exec() {
-            int x = (opcode & 0x0F00) >> 8;
-            soundRegister = Byte.toUnsignedInt(registers[x]);
-            programCounter += 2;
+    private static class SetSoundTimerToVx implements OpcodeFunction {
+        public void exec(Chip8 chip8, Instruction ins) {
+            boolean wasOn = chip8.soundRegister > 0;
+            chip8.soundRegister = Byte.toUnsignedInt(chip8.registers[ins.x]);
+            if (wasOn != chip8.soundRegister > 0) {
+                chip8.audio.setTone(!wasOn);
+            }
+            chip8.programCounter += 2;
         }
     }
 
@@ -648,14 +1485,13 @@ public class Chip8 {
      * The values of I and Vx are added,
      * and the results are stored in I.
      */
-    private class AddIAndVx implements OpcodeFunction {
-        public void exec() {
-            int x = (opcode & 0x0F00) >> 8;
+    private static class AddIAndVx implements OpcodeFunction {
+        public void exec(Chip8 chip8, Instruction ins) {
             // System.out.println("I was " + (int)indexRegister);
-            // System.out.println("registers[x] was " + Byte.toUnsignedInt(registers[x]));
-            // System.out.println("Sum is " + ((indexRegister + Byte.toUnsignedInt(registers[x])) & 0xFFFF));
-            indexRegister = (char)((indexRegister + Byte.toUnsignedInt(registers[x])) & 0xFFFF);
-            programCounter += 2;
+            // System.out.println("registers[ins.x] was " + Byte.toUnsignedInt(registers[ins.x]));
+            // System.out.println("Sum is " + ((indexRegister + Byte.toUnsignedInt(registers[ins.x])) & 0xFFFF));
+            chip8.indexRegister = (char)((chip8.indexRegister + Byte.toUnsignedInt(chip8.registers[ins.x])) & 0xFFFF);
+            chip8.programCounter += 2;
         }
     }
 
@@ -664,12 +1500,11 @@ public class Chip8 {
      * Set I = location of sprite for digit Vx.
      * The value of I is set to the location for the hexadecimal sprite corresponding to the value of Vx.
      */
-    private class SetIToLocationOfSprite implements OpcodeFunction {
-        public void exec() {
-            int x = (opcode & 0x0F00) >> 8;
-            int character = registers[x];
-            indexRegister = (char)(Memory.FONT_START_ADDRESS + (5 * character));
-            programCounter += 2;
+    private static class SetIToLocationOfSprite implements OpcodeFunction {
+        public void exec(Chip8 chip8, Instruction ins) {
+            int character = chip8.registers[ins.x];
+            chip8.indexRegister = (char)(Memory.FONT_START_ADDRESS + (5 * character));
+            chip8.programCounter += 2;
         }
     }
 
@@ -680,18 +1515,17 @@ public class Chip8 {
      * and places the hundreds digit in memory at location in I,
      * the tens digit at location I+1, and the ones digit at location I+2.
      */
-    private class StoreBCDRepresentationOfVx implements OpcodeFunction {
-        public void exec() {
-            int x = (opcode & 0xF00) >> 8;
-            int num = Byte.toUnsignedInt(registers[x]);
+    private static class StoreBCDRepresentationOfVx implements OpcodeFunction {
+        public void exec(Chip8 chip8, Instruction ins) {
+            int num = Byte.toUnsignedInt(chip8.registers[ins.x]);
             // System.out.println(String.format("%02x is num", (byte)num));
             // System.out.println(String.format("%02x is hunds place", (byte)(((num / 100) % 10) & 0xF)));
             // System.out.println(String.format("%02x is tens place", (byte)(((num / 10) % 10) & 0xF))); 
             // System.out.println(String.format("%02x is ones place", ((byte)((num % 10) & 0xF))));                   
-            memory.write(indexRegister, (byte)(((num / 100) % 10) & 0xF));
-            memory.write((char)(indexRegister + 1), (byte)(((num / 10) % 10) & 0xF));
-            memory.write((char)(indexRegister + 2), ((byte)((num % 10) & 0xF)));
-            programCounter += 2;
+            chip8.memory.write(chip8.indexRegister, (byte)(((num / 100) % 10) & 0xF));
+            chip8.memory.write((char)(chip8.indexRegister + 1), (byte)(((num / 10) % 10) & 0xF));
+            chip8.memory.write((char)(chip8.indexRegister + 2), ((byte)((num % 10) & 0xF)));
+            chip8.programCounter += 2;
         }
     }
 
@@ -701,13 +1535,12 @@ public class Chip8 {
      * The interpreter copies the values of registers V0 through Vx into memory,
      * starting at the address in I.
      */
-    private class StoreRegistersInMemory implements OpcodeFunction {
-        public void exec() {
-            int x = (opcode & 0x0F00) >> 8;
-            for (int i = 0; i <= x; i++) {
-                memory.write((char)(indexRegister + i), registers[i]);
+    private static class StoreRegistersInMemory implements OpcodeFunction {
+        public void exec(Chip8 chip8, Instruction ins) {
+            for (int i = 0; i <= ins.x; i++) {
+                chip8.memory.write((char)(chip8.indexRegister + i), chip8.registers[i]);
             }
-            programCounter += 2;
+            chip8.programCounter += 2;
         }
     }
 
@@ -716,14 +1549,289 @@ public class Chip8 {
      * Read registers V0 through Vx from memory starting at location I.
      * The interpreter reads values from memory starting at location I into registers V0 through Vx.
      */
-    private class StoreMemoryInRegisters implements OpcodeFunction {
-        public void exec() {
-            int x = (opcode & 0x0F00) >> 8;
-            for (int i = 0; i <= x; i++) {
-                registers[i] = memory.read((char)(indexRegister + i));
+    private static class StoreMemoryInRegisters implements OpcodeFunction {
+        public void exec(Chip8 chip8, Instruction ins) {
+            for (int i = 0; i <= ins.x; i++) {
+                chip8.registers[i] = chip8.memory.read((char)(chip8.indexRegister + i));
                 // System.out.println("Putting " + registers[i] + " into registers[" + i + "]");
             }
-            programCounter += 2;
+            chip8.programCounter += 2;
+        }
+    }
+
+    /**
+     * Fx55 on interpreters that leave I moved past the registers stored: by x + 1 on
+     * the COSMAC VIP, by x on CHIP-48.
+     */
+    private static class StoreRegistersInMemoryAndAdvanceI extends StoreRegistersInMemory {
+        private final int extra;
+
+        StoreRegistersInMemoryAndAdvanceI(int extra) {
+            this.extra = extra;
+        }
+
+        public void exec(Chip8 chip8, Instruction ins) {
+            super.exec(chip8, ins);
+            chip8.indexRegister += ins.x + extra;
+        }
+    }
+
+    /**
+     * Fx65 on interpreters that leave I moved past the registers loaded: by x + 1 on
+     * the COSMAC VIP, by x on CHIP-48.
+     */
+    private static class StoreMemoryInRegistersAndAdvanceI extends StoreMemoryInRegisters {
+        private final int extra;
+
+        StoreMemoryInRegistersAndAdvanceI(int extra) {
+            this.extra = extra;
+        }
+
+        public void exec(Chip8 chip8, Instruction ins) {
+            super.exec(chip8, ins);
+            chip8.indexRegister += ins.x + extra;
+        }
+    }
+
+    /**
+     * 00Cn - SCD nibble
+     * Scroll the selected planes down n rows.
+     */
+    private static class ScrollDown implements OpcodeFunction {
+        public void exec(Chip8 chip8, Instruction ins) {
+            int shift = Math.min(ins.n, chip8.height) * chip8.words;
+            for (int p = 0; p < 2; p++) {
+                long[] plane = chip8.selectedPlane(p);
+                if (plane != null) {
+                    System.arraycopy(plane, 0, plane, shift, chip8.height * chip8.words - shift);
+                    Arrays.fill(plane, 0, shift, 0L);
+                }
+            }
+            chip8.needsDrawing = true;
+            chip8.programCounter += 2;
+        }
+    }
+
+    /**
+     * 00Dn - SCU nibble (XO-CHIP)
+     * Scroll the selected planes up n rows.
+     */
+    private static class ScrollUp implements OpcodeFunction {
+        public void exec(Chip8 chip8, Instruction ins) {
+            int shift = Math.min(ins.n, chip8.height) * chip8.words;
+            for (int p = 0; p < 2; p++) {
+                long[] plane = chip8.selectedPlane(p);
+                if (plane != null) {
+                    System.arraycopy(plane, shift, plane, 0, chip8.height * chip8.words - shift);
+                    Arrays.fill(plane, chip8.height * chip8.words - shift, chip8.height * chip8.words, 0L);
+                }
+            }
+            chip8.needsDrawing = true;
+            chip8.programCounter += 2;
+        }
+    }
+
+    /**
+     * 00FB - SCR
+     * Scroll the selected planes right 4 pixels.
+     */
+    private static class ScrollRight implements OpcodeFunction {
+        public void exec(Chip8 chip8, Instruction ins) {
+            for (int p = 0; p < 2; p++) {
+                long[] plane = chip8.selectedPlane(p);
+                if (plane == null) {
+                    continue;
+                }
+                if (chip8.words == 1) {
+                    for (int y = 0; y < chip8.height; y++) {
+                        plane[y] >>>= 4;
+                    }
+                } else {
+                    for (int offset = 0; offset < chip8.height * 2; offset += 2) {
+                        plane[offset + 1] = (plane[offset + 1] >>> 4) | (plane[offset] << 60);
+                        plane[offset] >>>= 4;
+                    }
+                }
+            }
+            chip8.needsDrawing = true;
+            chip8.programCounter += 2;
+        }
+    }
+
+    /**
+     * 00FC - SCL
+     * Scroll the selected planes left 4 pixels.
+     */
+    private static class ScrollLeft implements OpcodeFunction {
+        public void exec(Chip8 chip8, Instruction ins) {
+            for (int p = 0; p < 2; p++) {
+                long[] plane = chip8.selectedPlane(p);
+                if (plane == null) {
+                    continue;
+                }
+                if (chip8.words == 1) {
+                    for (int y = 0; y < chip8.height; y++) {
+                        plane[y] <<= 4;
+                    }
+                } else {
+                    for (int offset = 0; offset < chip8.height * 2; offset += 2) {
+                        plane[offset] = (plane[offset] << 4) | (plane[offset + 1] >>> 60);
+                        plane[offset + 1] <<= 4;
+                    }
+                }
+            }
+            chip8.needsDrawing = true;
+            chip8.programCounter += 2;
+        }
+    }
+
+    /**
+     * 00FD - EXIT
+     * Exit the interpreter. The machine stays on this instruction, idle.
+     */
+    private static class Exit implements OpcodeFunction {
+        public void exec(Chip8 chip8, Instruction ins) {
+            chip8.idle = true;
+        }
+    }
+
+    /**
+     * 00FE - LOW
+     * Switch to 64x32 and clear the display.
+     */
+    private static class LowResolution implements OpcodeFunction {
+        public void exec(Chip8 chip8, Instruction ins) {
+            chip8.setResolution(WIDTH, HEIGHT);
+            chip8.programCounter += 2;
+        }
+    }
+
+    /**
+     * 00FF - HIGH
+     * Switch to 128x64 and clear the display.
+     */
+    private static class HighResolution implements OpcodeFunction {
+        public void exec(Chip8 chip8, Instruction ins) {
+            chip8.setResolution(MAX_WIDTH, MAX_HEIGHT);
+            chip8.programCounter += 2;
+        }
+    }
+
+    /**
+     * Fx30 - LD HF, Vx
+     * Set I = location of the 8x10 sprite for digit Vx.
+     */
+    private static class SetIToLocationOfLargeSprite implements OpcodeFunction {
+        public void exec(Chip8 chip8, Instruction ins) {
+            int character = chip8.registers[ins.x] & 0xF;
+            chip8.indexRegister = (char)(Memory.LARGE_FONT_START_ADDRESS + (10 * character));
+            chip8.programCounter += 2;
+        }
+    }
+
+    /**
+     * Fx75 - LD R, Vx
+     * Store registers V0 through Vx in the user flags.
+     */
+    private static class StoreRegistersInFlags implements OpcodeFunction {
+        public void exec(Chip8 chip8, Instruction ins) {
+            System.arraycopy(chip8.registers, 0, chip8.flags, 0, ins.x + 1);
+            chip8.programCounter += 2;
+        }
+    }
+
+    /**
+     * Fx85 - LD Vx, R
+     * Read registers V0 through Vx from the user flags.
+     */
+    private static class StoreFlagsInRegisters implements OpcodeFunction {
+        public void exec(Chip8 chip8, Instruction ins) {
+            System.arraycopy(chip8.flags, 0, chip8.registers, 0, ins.x + 1);
+            chip8.programCounter += 2;
+        }
+    }
+
+    /**
+     * 5xy2 - SAVE Vx - Vy (XO-CHIP)
+     * Store registers Vx through Vy, in that order, in memory starting at location I.
+     * I is left unchanged.
+     */
+    private static class SaveRange implements OpcodeFunction {
+        public void exec(Chip8 chip8, Instruction ins) {
+            int step = ins.x <= ins.y ? 1 : -1;
+            int count = Math.abs(ins.y - ins.x) + 1;
+            for (int i = 0; i < count; i++) {
+                chip8.memory.write((char)(chip8.indexRegister + i), chip8.registers[ins.x + i * step]);
+            }
+            chip8.programCounter += 2;
+        }
+    }
+
+    /**
+     * 5xy3 - LOAD Vx - Vy (XO-CHIP)
+     * Read registers Vx through Vy, in that order, from memory starting at location I.
+     * I is left unchanged.
+     */
+    private static class LoadRange implements OpcodeFunction {
+        public void exec(Chip8 chip8, Instruction ins) {
+            int step = ins.x <= ins.y ? 1 : -1;
+            int count = Math.abs(ins.y - ins.x) + 1;
+            for (int i = 0; i < count; i++) {
+                chip8.registers[ins.x + i * step] = chip8.memory.read((char)(chip8.indexRegister + i));
+            }
+            chip8.programCounter += 2;
+        }
+    }
+
+    /**
+     * F000 NNNN - LD I, long NNNN (XO-CHIP)
+     * Set I = the 16-bit word following this instruction. Only XO-CHIP ROMs use it, so
+     * the first one grows memory to XO-CHIP's 64 KB.
+     */
+    private static class LongLoadI implements OpcodeFunction {
+        public void exec(Chip8 chip8, Instruction ins) {
+            if (chip8.memory.getSize() < Memory.XO_MEM_SIZE_IN_BYTES) {
+                chip8.memory.setSize(Memory.XO_MEM_SIZE_IN_BYTES);
+            }
+            chip8.indexRegister = chip8.memory.getOpcode((char)(chip8.programCounter + 2));
+            chip8.programCounter += 4;
+        }
+    }
+
+    /**
+     * Fn01 - PLANE n (XO-CHIP)
+     * Select the planes, a bit mask of 0 to 3, that drawing, clearing and scrolling act on.
+     */
+    private static class SelectPlanes implements OpcodeFunction {
+        public void exec(Chip8 chip8, Instruction ins) {
+            chip8.planeMask = ins.x & 3;
+            chip8.programCounter += 2;
+        }
+    }
+
+    /**
+     * F002 - AUDIO (XO-CHIP)
+     * Load the 16 byte audio pattern buffer from memory starting at location I.
+     */
+    private static class LoadAudioPattern implements OpcodeFunction {
+        public void exec(Chip8 chip8, Instruction ins) {
+            for (int i = 0; i < chip8.audioPattern.length; i++) {
+                chip8.audioPattern[i] = chip8.memory.read((char)(chip8.indexRegister + i));
+            }
+            chip8.audio.setPattern(chip8.audioPattern, chip8.pitch);
+            chip8.programCounter += 2;
+        }
+    }
+
+    /**
+     * Fx3A - PITCH Vx (XO-CHIP)
+     * Set the audio pattern's playback rate to 4000 * 2^((Vx - 64) / 48) samples per second.
+     */
+    private static class SetPitch implements OpcodeFunction {
+        public void exec(Chip8 chip8, Instruction ins) {
+            chip8.pitch = Byte.toUnsignedInt(chip8.registers[ins.x]);
+            chip8.audio.setPattern(chip8.audioPattern, chip8.pitch);
+            chip8.programCounter += 2;
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,13 @@
+/**
+ * A straight-line run of Chip-8 instructions translated to JVM bytecode by BlockCompiler.
+ * @author Andrew Cheung
+ */
+public interface CompiledBlock {
+    /**
+     * Executes the block.
+     * @param registers - V0 through VF, updated in place
+     * @param indexRegister - value of I on entry
+     * @return value of I on exit
+     */
+    public int run(byte[] registers, int indexRegister);
+}
@@ -0,0 +1,228 @@
+/**
+ * Runs every .ch8 ROM under a directory headlessly for a fixed number of frames, in
+ * parallel, and writes a JSON report of what each one did. With --match, runs the ROMs
+ * the directory's RomCatalog matches instead, each with the quirk profile and speed
+ * the catalog has for it.
+ * Usage: java CorpusRunner [--frames N] [--ipf N] [--threads N] [--out corpus.json]
+ *                          [--match text] dir
+ * @author Andrew Cheung
+ */
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class CorpusRunner {
+    public static final int DEFAULT_FRAMES = 600;
+    public static final long SEED = 0;
+    public static final String DEFAULT_REPORT = "corpus.json";
+
+    private int frames;
+    private int instructionsPerFrame;
+
+    /**
+     * Outcome of running one ROM.
+     */
+    public static final class Result {
+        final Path rom;
+        int instructionsPerFrame;
+        long instructions;
+        long framesRun;
+        long nanos;
+        long hash;
+        QuirkProfile quirks;
+        String fault;
+
+        Result(Path rom) {
+            this.rom = rom;
+        }
+    }
+
+    public CorpusRunner(int frames, int instructionsPerFrame) {
+        this.frames = frames;
+        this.instructionsPerFrame = instructionsPerFrame;
+    }
+
+    /**
+     * Runs every ROM on the given pool. Machines share nothing mutable, so throughput
+     * scales with the pool's parallelism.
+     * @param roms - ROM files to run
+     * @param pool - pool to run them on
+     * @return one result per ROM, in the order given
+     */
+    public List<Result> runAll(List<Path> roms, ForkJoinPool pool) throws Exception {
+        return pool.submit(() -> roms.parallelStream().map(this::run).collect(Collectors.toList())).get();
+    }
+
+    /**
+     * Runs the given catalog entries on the given pool, each with the entry's quirk
+     * profile, and its speed if the catalog has one.
+     * @param catalog - catalog the entries came from
+     * @param entries - ROMs to run
+     * @param pool - pool to run them on
+     * @param overrideSpeed - true to run every ROM at this runner's speed regardless
+     * @return one result per entry, in the order given
+     */
+    public List<Result> runAll(RomCatalog catalog, List<RomCatalog.Entry> entries, ForkJoinPool pool,
+                               boolean overrideSpeed) throws Exception {
+        return pool.submit(() -> entries.parallelStream().map(entry -> {
+            int speed = overrideSpeed || entry.instructionsPerFrame == 0 ? instructionsPerFrame
+                                                                          : entry.instructionsPerFrame;
+            return run(catalog.resolve(entry), entry.quirks, speed);
+        }).collect(Collectors.toList())).get();
+    }
+
+    /**
+     * Runs one ROM with the quirk profile known for it, at this runner's speed.
+     */
+    public Result run(Path rom) {
+        return run(rom, null, instructionsPerFrame);
+    }
+
+    /**
+     * Runs one ROM. Any exception it throws, including failing to read the file, is
+     * recorded as its fault rather than propagated.
+     * @param rom - ROM file
+     * @param quirks - profile to run with, or null for the one known for the ROM
+     * @param instructionsPerFrame - instructions to run per frame
+     */
+    public Result run(Path rom, QuirkProfile quirks, int instructionsPerFrame) {
+        Result result = new Result(rom);
+        result.instructionsPerFrame = instructionsPerFrame;
+        long start = System.nanoTime();
+        Chip8 chip8 = null;
+        try {
+            chip8 = new Chip8(Files.readAllBytes(rom));
+            if (quirks != null) {
+                chip8.setQuirks(quirks);
+            }
+            chip8.setSeed(SEED);
+            result.quirks = chip8.getQuirks();
+            while (result.framesRun < frames) {
+                result.instructions += chip8.runFrame(instructionsPerFrame);
+                result.framesRun++;
+            }
+        } catch (Exception e) {
+            result.fault = e.getClass().getSimpleName() + ": " + e.getMessage();
+        }
+        result.nanos = System.nanoTime() - start;
+        if (chip8 != null) {
+            result.hash = chip8.getGraphicsHash();
+        }
+        return result;
+    }
+
+    /**
+     * Writes the results as JSON.
+     */
+    public void writeReport(List<Result> results, int threads, long nanos, Writer out) throws IOException {
+        out.write("{\n");
+        out.write(String.format("  \"frames\": %d,\n", frames));
+        out.write(String.format("  \"instructionsPerFrame\": %d,\n", instructionsPerFrame));
+        out.write(String.format("  \"threads\": %d,\n", threads));
+        out.write(String.format("  \"wallMillis\": %.3f,\n", nanos / 1e6));
+        out.write("  \"roms\": [\n");
+        for (int i = 0; i < results.size(); i++) {
+            Result result = results.get(i);
+            out.write(String.format("    {\"path\": %s, \"instructionsPerFrame\": %d, \"instructions\": %d, "
+                                    + "\"frames\": %d, \"millis\": %.3f, "
+                                    + "\"hash\": \"%016x\", \"quirks\": %s, \"fault\": %s}%s\n",
+                                    quote(result.rom.toString()), result.instructionsPerFrame, result.instructions,
+                                    result.framesRun, result.nanos / 1e6, result.hash,
+                                    result.quirks == null ? "null" : quote(result.quirks.name()),
+                                    result.fault == null ? "null" : quote(result.fault),
+                                    i + 1 < results.size() ? "," : ""));
+        }
+        out.write("  ]\n}\n");
+        out.flush();
+    }
+
+    private static String quote(String value) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int)c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    /**
+     * Returns every .ch8 file under the given directory, sorted by path.
+     */
+    public static List<Path> findROMs(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            return files.filter(p -> Files.isRegularFile(p) && p.toString().endsWith(".ch8"))
+                        .sorted()
+                        .collect(Collectors.toList());
+        }
+    }
+
+    public static void main(String[] args) {
+        int frames = DEFAULT_FRAMES;
+        int instructionsPerFrame = Main.DEFAULT_INSTRUCTIONS_PER_FRAME;
+        boolean overrideSpeed = false;
+        int threads = Runtime.getRuntime().availableProcessors();
+        String out = DEFAULT_REPORT;
+        String dir = null;
+        String match = null;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("--frames")) {
+                    frames = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("--ipf")) {
+                    instructionsPerFrame = Integer.parseInt(args[++i]);
+                    overrideSpeed = true;
+                } else if (args[i].equals("--threads")) {
+                    threads = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("--out")) {
+                    out = args[++i];
+                } else if (args[i].equals("--match")) {
+                    match = args[++i];
+                } else {
+                    dir = args[i];
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            dir = null;
+        }
+        if (dir == null || frames <= 0 || instructionsPerFrame <= 0 || threads <= 0) {
+            System.err.println("Usage: java CorpusRunner [--frames N] [--ipf N] [--threads N] [--out corpus.json]"
+                               + " [--match text] dir");
+            return;
+        }
+        try {
+            RomCatalog catalog = null;
+            List<Path> roms = null;
+            if (match == null) {
+                roms = findROMs(Paths.get(dir));
+            } else {
+                catalog = RomCatalog.open(Paths.get(dir), false);
+            }
+            CorpusRunner runner = new CorpusRunner(frames, instructionsPerFrame);
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            long start = System.nanoTime();
+            List<Result> results = catalog == null ? runner.runAll(roms, pool)
+                                                   : runner.runAll(catalog, catalog.search(match), pool, overrideSpeed);
+            long nanos = System.nanoTime() - start;
+            pool.shutdown();
+
+            try (Writer writer = new FileWriter(out)) {
+                runner.writeReport(results, threads, nanos, writer);
+            }
+            long faults = results.stream().filter(r -> r.fault != null).count();
+            System.err.println(String.format("%d ROMs, %d faults, %.1f ms on %d threads",
+                                             results.size(), faults, nanos / 1e6, threads));
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+}
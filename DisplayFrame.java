@@ -3,19 +3,17 @@ import java.awt.*;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener; 
 
-public class DisplayFrame extends JFrame implements KeyListener {
-    public static final int WIDTH = 64;
-    public static final int HEIGHT = 32;
-    public static final int PIXEL_SIZE = 10;
-    public static final int NUM_OF_KEYS = 16;
+public class DisplayFrame extends JFrame implements KeyListener, DisplaySink {
+    public static final int WIDTH = Chip8.MAX_WIDTH;
+    public static final int HEIGHT = Chip8.MAX_HEIGHT;
+    public static final int PIXEL_SIZE = 5;
 
     private DisplayPanel displayPanel;
-    private boolean[] pressed;
-    private Chip8 c8;
+    private Keypad keypad;
+    private volatile boolean rewinding;
 
-    public DisplayFrame(Chip8 c8) {
-        this.c8 = c8;
-        pressed = new boolean[NUM_OF_KEYS];
+    public DisplayFrame(Keymap keymap) {
+        keypad = new Keypad(keymap);
 
         setSize(WIDTH * PIXEL_SIZE, HEIGHT * PIXEL_SIZE + 20);
         setTitle("ninechip!");
@@ -23,49 +21,22 @@ public class DisplayFrame extends JFrame implements KeyListener {
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         add(displayPanel);
         setVisible(true);
-        addKeyListener(this); 
+        addKeyListener(this);
+        addKeyListener(keypad);
     }
 
-    public void updateGraphics(char[][] graphics) {
-        displayPanel.updateGraphics(graphics);
+    public void updateGraphics(TripleBuffer frames) {
+        displayPanel.updateGraphics(frames);
+        displayPanel.repaint();
     }
 
     @Override
     public void keyPressed(KeyEvent e) {
-        if (e.getKeyCode() == KeyEvent.VK_1) {
-            pressed[1] = true;
-        } else if (e.getKeyCode() == KeyEvent.VK_2) {
-            pressed[2] = true;
-        } else if (e.getKeyCode() == KeyEvent.VK_3) {
-            pressed[3] = true;
-        } else if (e.getKeyCode() == KeyEvent.VK_4) {
-            pressed[0xC] = true;
-        } else if (e.getKeyCode() == KeyEvent.VK_Q) {
-            pressed[4] = true;
-        } else if (e.getKeyCode() == KeyEvent.VK_W) {
-            pressed[5] = true;
-        } else if (e.getKeyCode() == KeyEvent.VK_E) {
-            pressed[6] = true;
-        } else if (e.getKeyCode() == KeyEvent.VK_R) {
-            pressed[0xD] = true;
-        } else if (e.getKeyCode() == KeyEvent.VK_A) {
-            pressed[7] = true;
-        } else if (e.getKeyCode() == KeyEvent.VK_S) {
-            pressed[8] = true;
-        } else if (e.getKeyCode() == KeyEvent.VK_D) {
-            pressed[9] = true;
-        } else if (e.getKeyCode() == KeyEvent.VK_F) {
-            pressed[0xE] = true;
-        } else if (e.getKeyCode() == KeyEvent.VK_Z) {
-            pressed[0xA] = true;
-        } else if (e.getKeyCode() == KeyEvent.VK_X) {
-            pressed[0] = true;
-        } else if (e.getKeyCode() == KeyEvent.VK_C) {
-            pressed[0xB] = true;
-        } else if (e.getKeyCode() == KeyEvent.VK_V) {
-            pressed[0xF] = true;
+        if (e.getKeyCode() == KeyEvent.VK_F3) {
+            displayPanel.toggleDebugOverlay();
+        } else if (e.getKeyCode() == KeyEvent.VK_BACK_SPACE) {
+            rewinding = true;
         }
-        c8.setPressed(pressed);
     }
 
     @Override
@@ -74,43 +45,19 @@ public class DisplayFrame extends JFrame implements KeyListener {
 
     @Override
     public void keyReleased(KeyEvent e) {
-        if (e.getKeyCode() == KeyEvent.VK_1) {
-            pressed[1] = false;
-        } else if (e.getKeyCode() == KeyEvent.VK_2) {
-            pressed[2] = false;
-        } else if (e.getKeyCode() == KeyEvent.VK_3) {
-            pressed[3] = false;
-        } else if (e.getKeyCode() == KeyEvent.VK_4) {
-            pressed[0xC] = false;
-        } else if (e.getKeyCode() == KeyEvent.VK_Q) {
-            pressed[4] = false;
-        } else if (e.getKeyCode() == KeyEvent.VK_W) {
-            pressed[5] = false;
-        } else if (e.getKeyCode() == KeyEvent.VK_E) {
-            pressed[6] = false;
-        } else if (e.getKeyCode() == KeyEvent.VK_R) {
-            pressed[0xD] = false;
-        } else if (e.getKeyCode() == KeyEvent.VK_A) {
-            pressed[7] = false;
-        } else if (e.getKeyCode() == KeyEvent.VK_S) {
-            pressed[8] = false;
-        } else if (e.getKeyCode() == KeyEvent.VK_D) {
-            pressed[9] = false;
-        } else if (e.getKeyCode() == KeyEvent.VK_F) {
-            pressed[0xE] = false;
-        } else if (e.getKeyCode() == KeyEvent.VK_Z) {
-            pressed[0xA] = false;
-        } else if (e.getKeyCode() == KeyEvent.VK_X) {
-            pressed[0] = false;
-        } else if (e.getKeyCode() == KeyEvent.VK_C) {
-            pressed[0xB] = false;
-        } else if (e.getKeyCode() == KeyEvent.VK_V) {
-            pressed[0xF] = false;
+        if (e.getKeyCode() == KeyEvent.VK_BACK_SPACE) {
+            rewinding = false;
         }
-        c8.setPressed(pressed);
     }
 
-    public boolean[] getPressed() {
-        return pressed;
+    /**
+     * Returns whether the rewind key (Backspace) is held down.
+     */
+    public boolean isRewinding() {
+        return rewinding;
     }
-}
\ No newline at end of file
+
+    public Keypad getKeypad() {
+        return keypad;
+    }
+}
@@ -1,29 +1,76 @@
 import javax.swing.*;
 import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 
 public class DisplayPanel extends JPanel {
-    private char[][] graphics;
+    /**
+     * Colour of a pixel by which planes have it set: none, the first, the second, both.
+     */
+    private static final int[] COLORS = { 0x000000, 0xFFFFFF, 0xAAAAAA, 0x555555 };
+
+    private volatile TripleBuffer frames;
+
+    /**
+     * Native-resolution image the framebuffer is rendered into, and its pixels.
+     */
+    private BufferedImage image;
+    private int[] pixels;
+
+    /**
+     * Frame as last rendered into image, so unchanged half rows can be skipped. Frames
+     * are two planes of DisplayFrame.WIDTH x DisplayFrame.HEIGHT, two longs per row.
+     */
+    private long[] rendered;
+
+    private boolean debugOverlay;
+    private long frameNanos;
 
     public DisplayPanel() {
-        graphics = new char[DisplayFrame.WIDTH][DisplayFrame.HEIGHT];
+        image = new BufferedImage(DisplayFrame.WIDTH, DisplayFrame.HEIGHT, BufferedImage.TYPE_INT_RGB);
+        pixels = ((DataBufferInt)image.getRaster().getDataBuffer()).getData();
+        rendered = new long[Chip8.FRAME_LENGTH];
     }
 
-    public void updateGraphics(char[][] graphics) {
-        this.graphics = graphics;
+    public void updateGraphics(TripleBuffer frames) {
+        this.frames = frames;
     }
 
+    /**
+     * Shows or hides the frame cost overlay.
+     */
+    public void toggleDebugOverlay() {
+        debugOverlay = !debugOverlay;
+        repaint();
+    }
+
+    /**
+     * Re-renders half rows that changed since the last paint, then scales the image to
+     * the panel in a single drawImage call.
+     */
     public void paint(Graphics g) {
-        char[][] graphics = this.graphics;
-        for (int i = 0; i < graphics.length; i++) {
-            for (int j = 0; j < graphics[i].length; j++) {
-                if (graphics[i][j] == 0) {
-                    g.setColor(Color.BLACK);
-                } else {
-                    g.setColor(Color.WHITE);
-                }
-                g.fillRect(i * DisplayFrame.PIXEL_SIZE, j * DisplayFrame.PIXEL_SIZE, DisplayFrame.PIXEL_SIZE,
-                           DisplayFrame.PIXEL_SIZE);
+        long start = System.nanoTime();
+        long[] graphics = frames == null ? rendered : frames.acquire();
+        for (int j = 0; j < Chip8.PLANE_LENGTH; j++) {
+            long first = graphics[j];
+            long second = graphics[Chip8.PLANE_LENGTH + j];
+            if (first == rendered[j] && second == rendered[Chip8.PLANE_LENGTH + j]) {
+                continue;
+            }
+            // word j of each plane holds pixels 64 * j .. 64 * j + 63 of the image, in reading order
+            int offset = j * 64;
+            for (int i = 0; i < 64; i++) {
+                pixels[offset + i] = COLORS[(int)((first << i) >>> 63) | (int)((second << i) >>> 63) << 1];
             }
+            rendered[j] = first;
+            rendered[Chip8.PLANE_LENGTH + j] = second;
+        }
+        g.drawImage(image, 0, 0, getWidth(), getHeight(), null);
+        frameNanos = System.nanoTime() - start;
+
+        if (debugOverlay) {
+            g.setColor(Color.GREEN);
+            g.drawString(String.format("frame: %d us", frameNanos / 1000), 4, 14);
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,24 @@
+/**
+ * Receives frames from a Chip-8.
+ * @author Andrew Cheung
+ */
+public interface DisplaySink {
+    /**
+     * Sink that discards every frame, for headless runs.
+     */
+    public static final DisplaySink NONE = new DisplaySink() {
+        public void updateGraphics(TripleBuffer frames) {
+        }
+    };
+
+    /**
+     * Called on the emulator thread after a new frame is published. The frame itself
+     * is read with frames.acquire() on whichever thread paints it.
+     * A frame is Chip8.FRAME_LENGTH longs: the first plane's Chip8.PLANE_LENGTH, then
+     * XO-CHIP's second plane's, all zero if the ROM never used it. Each plane is
+     * Chip8.MAX_WIDTH x Chip8.MAX_HEIGHT, two longs per row, with pixel x of row y at
+     * bit 63 - (x % 64) of long y * 2 + x / 64. Lower resolutions arrive scaled up.
+     * @param frames - buffer holding the newest frame
+     */
+    public void updateGraphics(TripleBuffer frames);
+}
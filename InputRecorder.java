@@ -0,0 +1,134 @@
+/**
+ * Records a session for bit-exact replay by InputReplayer.
+ * Wraps the real InputSource and logs the RNG seed, the quirk profile, every change of the latched key
+ * mask by frame number, and a rolling hash of the framebuffer every HASH_INTERVAL
+ * frames. A KEYS record for frame f holds the mask latched at the start of frame f;
+ * HASH and END records for frame f hold the hash after f frames have run.
+ *
+ * File format, big-endian:
+ *   int MAGIC, short VERSION, long seed, int instructions per frame,
+ *   UTF quirk profile name, then records of: byte tag, varint frames since the previous record, and
+ *   KEYS: short key mask | HASH: long rolling hash | END: long rolling hash.
+ * @author Andrew Cheung
+ */
+
+import java.io.*;
+
+public class InputRecorder implements InputSource {
+    public static final int MAGIC = 0x43385250; // "C8RP"
+    public static final short VERSION = 2;
+    public static final int HASH_INTERVAL = 60;
+
+    static final int END = 0;
+    static final int KEYS = 1;
+    static final int HASH = 2;
+
+    private InputSource input;
+    private DataOutputStream out;
+    private long frame;
+    private long lastRecordFrame;
+    private long rollingHash;
+    private boolean closed;
+
+    /**
+     * Key mask latched at the start of the current frame, and whether it changed.
+     * Written out only when the frame completes, so a recording never ends on a
+     * half-run frame.
+     */
+    private int keys;
+    private boolean keysChanged;
+
+    /**
+     * Starts a recording. The machine is reseeded so the seed can be saved, and its
+     * quirk profile is saved as it is now, so set it first.
+     * @param chip8 - machine to record; its input is replaced by this recorder
+     * @param input - where keys really come from
+     * @param instructionsPerFrame - instructions the session runs per frame
+     * @param file - recording to write
+     * @throws IOException if the file can't be written
+     */
+    public InputRecorder(Chip8 chip8, InputSource input, int instructionsPerFrame, File file) throws IOException {
+        this.input = input;
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        long seed = System.nanoTime();
+        chip8.setSeed(seed);
+        chip8.setInput(this);
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        out.writeLong(seed);
+        out.writeInt(instructionsPerFrame);
+        out.writeUTF(chip8.getQuirks().name());
+    }
+
+    @Override
+    public synchronized int pollKeys(int keys) {
+        int polled = input.pollKeys(keys);
+        if (polled != keys) {
+            this.keys = polled;
+            keysChanged = true;
+        }
+        return polled;
+    }
+
+    /**
+     * Folds the frame just run into the rolling hash. Call after every runFrame().
+     * @param chip8 - machine being recorded
+     */
+    public synchronized void endFrame(Chip8 chip8) {
+        if (closed) {
+            return;
+        }
+        try {
+            if (keysChanged) {
+                record(KEYS);
+                out.writeShort(keys);
+                keysChanged = false;
+            }
+            rollingHash = fold(rollingHash, chip8.getGraphicsHash());
+            frame++;
+            if (frame % HASH_INTERVAL == 0) {
+                record(HASH);
+                out.writeLong(rollingHash);
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Writes the END record and closes the file. Safe to call more than once.
+     * @throws IOException if the file can't be written
+     */
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        record(END);
+        out.writeLong(rollingHash);
+        out.close();
+    }
+
+    /**
+     * Combines a frame's hash into a rolling hash.
+     */
+    static long fold(long rollingHash, long frameHash) {
+        return (rollingHash ^ frameHash) * 0x100000001B3L;
+    }
+
+    private void record(int tag) throws IOException {
+        out.writeByte(tag);
+        long delta = frame - lastRecordFrame;
+        while (delta >= 0x80) {
+            out.writeByte((int)(delta | 0x80));
+            delta >>>= 7;
+        }
+        out.writeByte((int)delta);
+        lastRecordFrame = frame;
+    }
+
+    private void fail(IOException e) {
+        closed = true;
+        e.printStackTrace();
+    }
+}
@@ -0,0 +1,135 @@
+/**
+ * Drives a Chip8 from a file written by InputRecorder and checks that it reproduces
+ * the recorded framebuffer hashes. The recording carries everything the run depends
+ * on besides the ROM: seed, instructions per frame, quirk profile and keys.
+ * @author Andrew Cheung
+ */
+
+import java.io.*;
+
+public class InputReplayer implements InputSource {
+    private DataInputStream in;
+    private long seed;
+    private int instructionsPerFrame;
+    private QuirkProfile quirks;
+
+    private long frame;
+    private long rollingHash;
+
+    /**
+     * Next record: its tag and the frame it applies to.
+     */
+    private int nextTag;
+    private long nextFrame;
+
+    private long divergedAt;
+
+    /**
+     * Opens a recording.
+     * @param file - recording to read
+     * @throws IOException if the file can't be read or is not a recording
+     */
+    public InputReplayer(File file) throws IOException {
+        in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        if (in.readInt() != InputRecorder.MAGIC) {
+            throw new IOException("Not a Chip-8 recording!");
+        } else if (in.readShort() != InputRecorder.VERSION) {
+            throw new IOException("Unsupported recording version!");
+        }
+        seed = in.readLong();
+        instructionsPerFrame = in.readInt();
+        String profile = in.readUTF();
+        try {
+            quirks = QuirkProfile.valueOf(profile);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Unknown quirk profile " + profile + "!");
+        }
+        divergedAt = -1;
+        readHeader();
+    }
+
+    /**
+     * Replays the whole recording on the given machine as fast as possible.
+     * @param chip8 - freshly loaded machine running the recorded ROM; it is switched
+     *                to the recorded quirk profile
+     * @return true if every recorded hash matched
+     * @throws IOException if the recording is truncated or can't be read
+     */
+    public boolean replay(Chip8 chip8) throws IOException {
+        chip8.setQuirks(quirks);
+        chip8.setSeed(seed);
+        chip8.setInput(this);
+        while (true) {
+            while (nextTag != InputRecorder.KEYS && nextFrame == frame) {
+                if (in.readLong() != rollingHash && divergedAt < 0) {
+                    divergedAt = frame;
+                }
+                if (nextTag == InputRecorder.END) {
+                    in.close();
+                    return divergedAt < 0;
+                }
+                readHeader();
+            }
+            chip8.runFrame(instructionsPerFrame);
+            rollingHash = InputRecorder.fold(rollingHash, chip8.getGraphicsHash());
+            frame++;
+        }
+    }
+
+    @Override
+    public int pollKeys(int keys) {
+        try {
+            while (nextTag == InputRecorder.KEYS && nextFrame == frame) {
+                keys = in.readUnsignedShort();
+                readHeader();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return keys;
+    }
+
+    /**
+     * Returns the quirk profile the recording was made with.
+     */
+    public QuirkProfile getQuirks() {
+        return quirks;
+    }
+
+    /**
+     * Returns the number of frames replayed.
+     */
+    public long getFrames() {
+        return frame;
+    }
+
+    /**
+     * Returns the first frame whose hash checkpoint didn't match, or -1 if none.
+     */
+    public long getDivergedAt() {
+        return divergedAt;
+    }
+
+    /**
+     * Returns the rolling framebuffer hash at the current frame.
+     */
+    public long getRollingHash() {
+        return rollingHash;
+    }
+
+    /**
+     * Reads the tag and frame delta of the next record.
+     */
+    private void readHeader() throws IOException {
+        nextTag = in.readUnsignedByte();
+        long delta = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = in.readUnsignedByte();
+            delta |= (long)(b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        nextFrame += delta;
+    }
+}
@@ -0,0 +1,22 @@
+/**
+ * Supplies the state of the Chip-8's 16-key hex keypad.
+ * @author Andrew Cheung
+ */
+public interface InputSource {
+    /**
+     * Source with no keys ever pressed, for headless runs.
+     */
+    public static final InputSource NONE = new InputSource() {
+        public int pollKeys(int keys) {
+            return keys;
+        }
+    };
+
+    /**
+     * Applies key changes since the last poll. Called once per frame on the emulator
+     * thread.
+     * @param keys - previous key mask, with bit k set while key k is down
+     * @return current key mask
+     */
+    public int pollKeys(int keys);
+}
@@ -0,0 +1,104 @@
+/**
+ * A decoded Chip-8 opcode: the slot of the handler it dispatches to, plus its
+ * operands extracted once so handlers never re-mask the raw opcode.
+ * Instructions are immutable and shared by every Chip8 in the JVM.
+ * @author Andrew Cheung
+ */
+final class Instruction {
+    /**
+     * Opcode "skeletons", i.e. opcodes with their operand bits cleared. The index of a
+     * skeleton is the handler slot its opcodes dispatch to.
+     */
+    static final char[] SKELETONS = {
+        0x00E0, 0x00EE, 0x1000, 0x2000, 0x3000, 0x4000, 0x5000, 0x6000,
+        0x7000, 0x8000, 0x8001, 0x8002, 0x8003, 0x8004, 0x8005, 0x8006,
+        0x8007, 0x800E, 0x9000, 0xA000, 0xB000, 0xC000, 0xD000, 0xE09E,
+        0xE0A1, 0xF007, 0xF00A, 0xF015, 0xF018, 0xF01E, 0xF029, 0xF033,
+        0xF055, 0xF065,
+        // SUPER-CHIP
+        0x00C0, 0x00FB, 0x00FC, 0x00FD, 0x00FE, 0x00FF, 0xF030, 0xF075,
+        0xF085,
+        // VIP 64x64 hires clear
+        0x0230,
+        // XO-CHIP
+        0x00D0, 0x5002, 0x5003, 0xF000, 0xF001, 0xF002, 0xF03A
+    };
+
+    /**
+     * Slot for opcodes that match no skeleton.
+     */
+    static final int UNKNOWN = SKELETONS.length;
+
+    /**
+     * Number of handler slots, including UNKNOWN.
+     */
+    static final int NUM_OF_SLOTS = SKELETONS.length + 1;
+
+    private static final Instruction[] DECODED = new Instruction[0x10000];
+
+    final char opcode;
+    final int slot;
+    final int x;
+    final int y;
+    final int n;
+    final byte kk;
+    final char nnn;
+
+    private Instruction(char opcode) {
+        this.opcode = opcode;
+        slot = slotOf(trimOpcode(opcode));
+        x = (opcode & 0x0F00) >>> 8;
+        y = (opcode & 0x00F0) >>> 4;
+        n = opcode & 0x000F;
+        kk = (byte)(opcode & 0x00FF);
+        nnn = (char)(opcode & 0x0FFF);
+    }
+
+    /**
+     * Returns the decoded form of the given opcode. Each opcode is decoded at most
+     * once; later calls are a single array load.
+     * @param opcode - raw 16-bit opcode
+     * @return decoded instruction
+     */
+    static Instruction decode(char opcode) {
+        Instruction instruction = DECODED[opcode];
+        if (instruction == null) {
+            // Fields are final, so a racing decode just publishes an equal object.
+            instruction = new Instruction(opcode);
+            DECODED[opcode] = instruction;
+        }
+        return instruction;
+    }
+
+    /**
+     * Returns the handler slot of the given skeleton.
+     * @param skeleton - opcode skeleton
+     * @return slot, or UNKNOWN if the skeleton is not in SKELETONS
+     */
+    static int slotOf(char skeleton) {
+        for (int i = 0; i < SKELETONS.length; i++) {
+            if (SKELETONS[i] == skeleton) {
+                return i;
+            }
+        }
+        return UNKNOWN;
+    }
+
+    /**
+     * Trims opcode to skeleton and returns skeleton
+     */
+    private static char trimOpcode(char opcode) {
+        if ((opcode & 0xFFE0) == 0x00C0) {
+            return (char)(opcode & 0xFFF0);
+        } else if ((opcode & 0xF000) == 0x5000) {
+            return (char)(opcode & 0xF00F);
+        } else if ((opcode & 0xF000) == 0x0000) {
+            return opcode;
+        } else if ((opcode & 0xF000) == 0x8000) {
+            return (char)((opcode & 0xF00F));
+        } else if ((opcode & 0xF000) == 0xF000 || (opcode & 0xF000) == 0xE000) {
+            return (char)(opcode & 0xF0FF);
+        }
+        return (char)(opcode & 0xF000);
+    }
+}
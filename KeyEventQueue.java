@@ -0,0 +1,87 @@
+/**
+ * Single-producer, single-consumer lock-free ring of timestamped key events.
+ * The AWT event thread offers events as they happen; the emulator thread drains them
+ * once per frame. Each side only writes its own index, and publishes it with a
+ * volatile store after touching the slots, so no locks or CAS are needed.
+ * @author Andrew Cheung
+ */
+public class KeyEventQueue {
+    /**
+     * Capacity of the ring. Must be a power of two.
+     */
+    public static final int CAPACITY = 256;
+
+    private static final int MASK = CAPACITY - 1;
+    private static final int DOWN = 0x10;
+
+    private final long[] times;
+    private final byte[] events;
+
+    /**
+     * Next slot the producer writes. Written only by the producer.
+     */
+    private volatile long tail;
+
+    /**
+     * Next slot the consumer reads. Written only by the consumer.
+     */
+    private volatile long head;
+
+    private long lastEventNanos;
+
+    /**
+     * Constructs an empty queue.
+     */
+    public KeyEventQueue() {
+        times = new long[CAPACITY];
+        events = new byte[CAPACITY];
+    }
+
+    /**
+     * Adds a key event. Called from the producer thread only.
+     * @param key - Chip-8 key (0x0 - 0xF)
+     * @param down - true for a press, false for a release
+     * @param nanos - System.nanoTime() when the event happened
+     * @return false if the queue was full and the event was dropped
+     */
+    public boolean offer(int key, boolean down, long nanos) {
+        long t = tail;
+        if (t - head == CAPACITY) {
+            return false;
+        }
+        int slot = (int)t & MASK;
+        times[slot] = nanos;
+        events[slot] = (byte)(key | (down ? DOWN : 0));
+        tail = t + 1;
+        return true;
+    }
+
+    /**
+     * Applies every pending event, oldest first, to the given key mask. Called from
+     * the consumer thread only.
+     * @param keys - key mask with bit k set while key k is down
+     * @return updated key mask
+     */
+    public int drain(int keys) {
+        long h = head;
+        long t = tail;
+        while (h != t) {
+            int slot = (int)h & MASK;
+            int event = events[slot];
+            int bit = 1 << (event & 0xF);
+            keys = (event & DOWN) != 0 ? keys | bit : keys & ~bit;
+            lastEventNanos = times[slot];
+            h++;
+        }
+        head = h;
+        return keys;
+    }
+
+    /**
+     * Returns the timestamp of the newest event drained so far, or 0 if none has been.
+     * Called from the consumer thread only.
+     */
+    public long getLastEventNanos() {
+        return lastEventNanos;
+    }
+}
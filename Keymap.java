@@ -0,0 +1,77 @@
+/**
+ * Maps host key codes (KeyEvent.VK_*) to Chip-8 keys with a single array lookup.
+ * @author Andrew Cheung
+ */
+
+import java.awt.event.KeyEvent;
+import java.util.Arrays;
+
+public class Keymap {
+    /**
+     * Host key codes at or above this are never mapped.
+     */
+    public static final int MAX_KEY_CODE = 256;
+
+    /**
+     * Value of lookup() for unmapped host keys.
+     */
+    public static final int UNMAPPED = -1;
+
+    private byte[] keys;
+
+    /**
+     * Constructs the default mapping, which puts the Chip-8's 4x4 keypad on the left
+     * of a QWERTY keyboard:
+     *   1 2 3 4      1 2 3 C
+     *   Q W E R  ->  4 5 6 D
+     *   A S D F      7 8 9 E
+     *   Z X C V      A 0 B F
+     */
+    public Keymap() {
+        keys = new byte[MAX_KEY_CODE];
+        Arrays.fill(keys, (byte)UNMAPPED);
+        map(KeyEvent.VK_1, 0x1);
+        map(KeyEvent.VK_2, 0x2);
+        map(KeyEvent.VK_3, 0x3);
+        map(KeyEvent.VK_4, 0xC);
+        map(KeyEvent.VK_Q, 0x4);
+        map(KeyEvent.VK_W, 0x5);
+        map(KeyEvent.VK_E, 0x6);
+        map(KeyEvent.VK_R, 0xD);
+        map(KeyEvent.VK_A, 0x7);
+        map(KeyEvent.VK_S, 0x8);
+        map(KeyEvent.VK_D, 0x9);
+        map(KeyEvent.VK_F, 0xE);
+        map(KeyEvent.VK_Z, 0xA);
+        map(KeyEvent.VK_X, 0x0);
+        map(KeyEvent.VK_C, 0xB);
+        map(KeyEvent.VK_V, 0xF);
+    }
+
+    /**
+     * Maps the given host key to the given Chip-8 key, replacing any previous mapping.
+     * @param keyCode - host key code
+     * @param key - Chip-8 key (0x0 - 0xF), or UNMAPPED to remove the mapping
+     * @throws IllegalArgumentException if keyCode or key is out of range
+     */
+    public void map(int keyCode, int key) {
+        if (keyCode < 0 || keyCode >= MAX_KEY_CODE) {
+            throw new IllegalArgumentException("Host key code out of range!");
+        } else if (key < UNMAPPED || key >= Keypad.NUM_OF_KEYS) {
+            throw new IllegalArgumentException("Chip-8 key out of range!");
+        }
+        keys[keyCode] = (byte)key;
+    }
+
+    /**
+     * Returns the Chip-8 key the given host key is mapped to.
+     * @param keyCode - host key code
+     * @return Chip-8 key, or UNMAPPED
+     */
+    public int lookup(int keyCode) {
+        if (keyCode < 0 || keyCode >= MAX_KEY_CODE) {
+            return UNMAPPED;
+        }
+        return keys[keyCode];
+    }
+}
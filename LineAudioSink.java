@@ -0,0 +1,100 @@
+/**
+ * Plays the buzzer through a javax.sound SourceDataLine. A dedicated thread renders
+ * fixed-size chunks into one preallocated buffer and writes them into the line, whose
+ * own buffer is the ring the sound card drains. The line buffer is sized for the
+ * requested latency, and each chunk is rendered only once the line has room for it,
+ * so a tone change reaches the speaker within about one line buffer. The emulator
+ * thread only updates ToneGenerator's state and never allocates or blocks.
+ * @author Andrew Cheung
+ */
+
+import java.io.Closeable;
+import java.util.concurrent.locks.LockSupport;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+
+public class LineAudioSink implements AudioSink, Closeable {
+    public static final int DEFAULT_BUFFER_MILLIS = 40;
+
+    /**
+     * Chunks per line buffer. More chunks keep the line fuller at the cost of more
+     * wakeups.
+     */
+    private static final int CHUNKS = 4;
+
+    private final ToneGenerator generator;
+    private final SourceDataLine line;
+    private final byte[] chunk;
+    private final long chunkNanos;
+    private final Thread thread;
+    private volatile boolean running;
+
+    /**
+     * Opens the default output line and starts the audio thread.
+     * @param bufferMillis - line buffer length, i.e. roughly the output latency
+     * @throws LineUnavailableException if no line can be opened
+     * @throws IllegalArgumentException if bufferMillis is not positive, or the system
+     *                                  has no line supporting ToneGenerator.FORMAT
+     */
+    public LineAudioSink(int bufferMillis) throws LineUnavailableException {
+        if (bufferMillis <= 0) {
+            throw new IllegalArgumentException("Audio buffer must be positive!");
+        }
+        generator = new ToneGenerator();
+        int bufferBytes = ToneGenerator.SAMPLE_RATE * bufferMillis / 1000 * ToneGenerator.BYTES_PER_SAMPLE;
+        line = AudioSystem.getSourceDataLine(ToneGenerator.FORMAT);
+        line.open(ToneGenerator.FORMAT, Math.max(bufferBytes, CHUNKS * ToneGenerator.BYTES_PER_SAMPLE));
+        // the line may round the buffer, so split what it actually got
+        int samples = Math.max(1, line.getBufferSize() / CHUNKS / ToneGenerator.BYTES_PER_SAMPLE);
+        chunk = new byte[samples * ToneGenerator.BYTES_PER_SAMPLE];
+        chunkNanos = samples * 1_000_000_000L / ToneGenerator.SAMPLE_RATE;
+        line.start();
+        running = true;
+        thread = new Thread(this::run, "audio");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MAX_PRIORITY);
+        thread.start();
+    }
+
+    public void setTone(boolean on) {
+        generator.setTone(on);
+    }
+
+    public void setPattern(byte[] pattern, int pitch) {
+        generator.setPattern(pattern, pitch);
+    }
+
+    public void endFrame() {
+    }
+
+    /**
+     * Keeps the line topped up, silence included, so starting a tone never waits for
+     * the line to restart.
+     */
+    private void run() {
+        int samples = chunk.length / ToneGenerator.BYTES_PER_SAMPLE;
+        while (running) {
+            if (line.available() < chunk.length) {
+                LockSupport.parkNanos(chunkNanos / 2);
+                continue;
+            }
+            generator.fill(chunk, 0, samples);
+            line.write(chunk, 0, chunk.length);
+        }
+    }
+
+    /**
+     * Stops the audio thread and closes the line.
+     */
+    public void close() {
+        running = false;
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        line.stop();
+        line.close();
+    }
+}
@@ -0,0 +1,229 @@
+/**
+ * Runs many headless machines in one JVM. Each tick advances every live machine by one
+ * frame on a work-stealing pool, split into small batches so cheap (idle) and expensive
+ * machines balance across threads. A machine that faults is stopped and left out of
+ * later ticks. Instances of the same ROM are forked from one prototype, so they share
+ * its memory pages until they write to them.
+ * Usage: java MachineHost [--instances N] [--ipf N] [--threads N] [--seconds N] [--paced] rom...
+ * @author Andrew Cheung
+ */
+
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+public class MachineHost {
+
+    /**
+     * Most machines a task runs itself before splitting.
+     */
+    public static final int BATCH_SIZE = 32;
+    public static final int DEFAULT_INSTANCES = 1000;
+
+    private static final long FRAME_NANOS = 1_000_000_000L / Main.FRAMES_PER_SECOND;
+
+    private ForkJoinPool pool;
+    private List<Chip8> machines;
+    private Exception[] faults;
+    private int instructionsPerFrame;
+
+    private LongAdder instructions;
+    private LongAdder frames;
+
+    /**
+     * A run of machines to advance by one frame.
+     */
+    private class FrameTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int start;
+        private final int end;
+
+        FrameTask(int start, int end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        protected void compute() {
+            if (end - start > BATCH_SIZE) {
+                int middle = (start + end) >>> 1;
+                invokeAll(new FrameTask(start, middle), new FrameTask(middle, end));
+                return;
+            }
+            long executed = 0;
+            int framesRun = 0;
+            for (int i = start; i < end; i++) {
+                if (faults[i] != null) {
+                    continue;
+                }
+                try {
+                    executed += machines.get(i).runFrame(instructionsPerFrame);
+                    framesRun++;
+                } catch (Exception e) {
+                    faults[i] = e;
+                }
+            }
+            instructions.add(executed);
+            frames.add(framesRun);
+        }
+    }
+
+    /**
+     * Constructs an empty host.
+     * @param threads - number of worker threads
+     * @param instructionsPerFrame - instructions each machine executes per frame
+     */
+    public MachineHost(int threads, int instructionsPerFrame) {
+        pool = new ForkJoinPool(threads);
+        machines = new ArrayList<Chip8>();
+        faults = new Exception[0];
+        this.instructionsPerFrame = instructionsPerFrame;
+        instructions = new LongAdder();
+        frames = new LongAdder();
+    }
+
+    /**
+     * Adds a machine. Must not be called while a tick is running.
+     * @param chip8 - machine to run from the next tick on
+     */
+    public void add(Chip8 chip8) {
+        machines.add(chip8);
+        if (faults.length < machines.size()) {
+            faults = Arrays.copyOf(faults, Math.max(16, faults.length * 2));
+        }
+    }
+
+    /**
+     * Advances every live machine by one frame, returning when all have finished.
+     */
+    public void tick() {
+        pool.invoke(new FrameTask(0, machines.size()));
+    }
+
+    /**
+     * Returns the number of machines added.
+     */
+    public int size() {
+        return machines.size();
+    }
+
+    /**
+     * Returns the number of machines that have faulted.
+     */
+    public int getFaultCount() {
+        int count = 0;
+        for (int i = 0; i < machines.size(); i++) {
+            if (faults[i] != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the exception that stopped the given machine, or null if it is still running.
+     */
+    public Exception getFault(int machine) {
+        return faults[machine];
+    }
+
+    /**
+     * Returns and resets the number of frames run since the last call.
+     */
+    public long takeFrames() {
+        return frames.sumThenReset();
+    }
+
+    /**
+     * Returns and resets the number of instructions executed since the last call.
+     */
+    public long takeInstructions() {
+        return instructions.sumThenReset();
+    }
+
+    /**
+     * Stops the worker threads.
+     */
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    public static void main(String[] args) {
+        int instances = DEFAULT_INSTANCES;
+        int instructionsPerFrame = Main.DEFAULT_INSTRUCTIONS_PER_FRAME;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int seconds = 0;
+        boolean paced = false;
+        List<String> roms = new ArrayList<String>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("--instances")) {
+                    instances = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("--ipf")) {
+                    instructionsPerFrame = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("--threads")) {
+                    threads = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("--seconds")) {
+                    seconds = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("--paced")) {
+                    paced = true;
+                } else {
+                    roms.add(args[i]);
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            roms.clear();
+        }
+        if (roms.isEmpty() || instances <= 0 || instructionsPerFrame <= 0 || threads <= 0) {
+            System.err.println("Usage: java MachineHost [--instances N] [--ipf N] [--threads N] "
+                               + "[--seconds N] [--paced] rom...");
+            return;
+        }
+
+        MachineHost host = new MachineHost(threads, instructionsPerFrame);
+        try {
+            List<Chip8> prototypes = new ArrayList<Chip8>();
+            for (String rom : roms) {
+                prototypes.add(new Chip8(Files.readAllBytes(Paths.get(rom))));
+            }
+            for (int i = 0; i < instances; i++) {
+                Chip8 chip8 = prototypes.get(i % prototypes.size()).fork();
+                chip8.setSeed(i);
+                host.add(chip8);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            host.shutdown();
+            return;
+        }
+
+        long start = System.nanoTime();
+        long nextFrame = start;
+        long nextReport = start + Main.REPORT_INTERVAL_NANOS;
+        long end = seconds > 0 ? start + seconds * 1_000_000_000L : Long.MAX_VALUE;
+        while (System.nanoTime() < end) {
+            if (paced) {
+                long now = System.nanoTime();
+                if (now < nextFrame) {
+                    LockSupport.parkNanos(nextFrame - now);
+                    continue;
+                }
+                nextFrame = Math.max(nextFrame + FRAME_NANOS, now - Main.MAX_CATCH_UP_FRAMES * FRAME_NANOS);
+            }
+            host.tick();
+
+            long now = System.nanoTime();
+            if (now >= nextReport) {
+                double elapsed = (now - nextReport + Main.REPORT_INTERVAL_NANOS) / 1e9;
+                System.out.println(String.format("%d machines, %.0f frames/s, %.0f instructions/s, %d faulted",
+                                                 host.size(), host.takeFrames() / elapsed,
+                                                 host.takeInstructions() / elapsed, host.getFaultCount()));
+                nextReport = now + Main.REPORT_INTERVAL_NANOS;
+            }
+        }
+        host.shutdown();
+    }
+}
@@ -1,29 +1,331 @@
+import java.awt.GraphicsEnvironment;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+import javax.sound.sampled.LineUnavailableException;
+
 public class Main extends Thread {
+    public static final int FRAMES_PER_SECOND = 60;
+    public static final int DEFAULT_INSTRUCTIONS_PER_FRAME = 10;
+
+    /**
+     * Most frames run back to back when the host falls behind. Anything later is
+     * dropped, i.e. the emulated clock slips instead of racing to catch up.
+     */
+    public static final int MAX_CATCH_UP_FRAMES = 4;
+
+    /**
+     * How often turbo mode prints its throughput.
+     */
+    public static final long REPORT_INTERVAL_NANOS = 1_000_000_000L;
+
+    private static final long FRAME_NANOS = 1_000_000_000L / FRAMES_PER_SECOND;
+
     private Chip8 chip8;
+    private int instructionsPerFrame;
+    private boolean turbo;
+    private DisplayFrame display;
+    private RewindBuffer rewind;
+    private InputRecorder recorder;
+    private AudioSink audio;
 
-    public Main(String ROM) {
+    public Main(String ROM, boolean jit, int instructionsPerFrame, boolean turbo, int rewindMegabytes) {
         chip8 = new Chip8(ROM);
+        chip8.setCompilerEnabled(jit);
+        this.instructionsPerFrame = instructionsPerFrame;
+        this.turbo = turbo;
+        if (!GraphicsEnvironment.isHeadless()) {
+            display = new DisplayFrame(new Keymap());
+            chip8.setDisplay(display);
+            chip8.setInput(display.getKeypad());
+            if (rewindMegabytes > 0) {
+                rewind = new RewindBuffer(rewindMegabytes);
+            }
+        }
+        audio = AudioSink.NONE;
+    }
+
+    /**
+     * Plays the buzzer through the default audio output. If there is none, the
+     * machine stays silent.
+     * @param bufferMillis - output buffer length, trading latency for robustness
+     */
+    public void startAudio(int bufferMillis) {
+        try {
+            setAudio(new LineAudioSink(bufferMillis));
+        } catch (LineUnavailableException | IllegalArgumentException e) {
+            System.err.println("No audio output: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes the buzzer to a WAV file in emulated time instead of playing it.
+     * @param file - WAV file to write
+     * @throws IOException if the file can't be created
+     */
+    public void startWavOutput(File file) throws IOException {
+        setAudio(new WavAudioSink(file));
+    }
+
+    private void setAudio(AudioSink audio) {
+        this.audio = audio;
+        chip8.setAudio(audio);
+    }
+
+    /**
+     * Overrides the quirk profile chosen from the ROM's hash.
+     * @param quirks - profile to run with
+     */
+    public void setQuirks(QuirkProfile quirks) {
+        chip8.setQuirks(quirks);
     }
 
+    /**
+     * Records this session's input to the given file for replay with --replay. Rewind is
+     * turned off, since stepping back would make the recording unreplayable.
+     * @param file - recording to write
+     * @throws IOException if the file can't be written
+     */
+    public void startRecording(File file) throws IOException {
+        InputSource input = display == null ? InputSource.NONE : display.getKeypad();
+        recorder = new InputRecorder(chip8, input, instructionsPerFrame, file);
+        rewind = null;
+    }
+
+    /**
+     * Runs one emulated frame per 1/60 s of System.nanoTime(). Each frame executes
+     * exactly instructionsPerFrame instructions and one timer tick, so what the machine
+     * computes never depends on host timing; only the pacing does. While Backspace is
+     * held, each tick steps back one recorded frame instead.
+     */
     public void run() {
-        while (true) {    
-            chip8.cycle();
-            chip8.decrementTimers();
-            try {
-                Thread.sleep(10);
-            } catch (InterruptedException e) {
+        if (turbo) {
+            runTurbo();
+            return;
+        }
+        long nextFrame = System.nanoTime();
+        while (true) {
+            long now = System.nanoTime();
+            if (now < nextFrame) {
+                LockSupport.parkNanos(nextFrame - now);
+                continue;
+            }
+            long behind = (now - nextFrame) / FRAME_NANOS;
+            if (behind >= MAX_CATCH_UP_FRAMES) {
+                nextFrame += (behind - MAX_CATCH_UP_FRAMES + 1) * FRAME_NANOS;
+            }
+            if (rewind != null && display.isRewinding()) {
+                rewind.stepBack(chip8);
+            } else {
+                chip8.runFrame(instructionsPerFrame);
+                if (rewind != null) {
+                    rewind.record(chip8);
+                }
+                if (recorder != null) {
+                    recorder.endFrame(chip8);
+                }
+            }
+            nextFrame += FRAME_NANOS;
+        }
+    }
 
+    /**
+     * Runs frames back to back with no pacing. Timers still tick once per
+     * instructionsPerFrame instructions, so the game sees the same emulated time it
+     * would at normal speed, only sooner. Instructions/s and frames/s are printed
+     * every REPORT_INTERVAL_NANOS.
+     */
+    private void runTurbo() {
+        long instructions = 0;
+        long frames = 0;
+        long lastReport = System.nanoTime();
+        while (true) {
+            instructions += chip8.runFrame(instructionsPerFrame);
+            frames++;
+            if (recorder != null) {
+                recorder.endFrame(chip8);
+            }
+            long now = System.nanoTime();
+            if (now - lastReport >= REPORT_INTERVAL_NANOS) {
+                double seconds = (now - lastReport) / 1e9;
+                System.out.println(String.format("%.0f instructions/s, %.0f frames/s, %.1f%% idle",
+                                                 instructions / seconds, frames / seconds,
+                                                 chip8.getIdlePercentage()));
+                instructions = 0;
+                frames = 0;
+                lastReport = now;
             }
         }
     }
+
+    /**
+     * Replays a recording headlessly at full speed and checks its framebuffer hashes.
+     * @return true if the replay matched the recording
+     */
+    private static boolean replay(String ROM, String recording, boolean jit) throws IOException {
+        Chip8 chip8 = new Chip8(ROM);
+        chip8.setCompilerEnabled(jit);
+        InputReplayer replayer = new InputReplayer(new File(recording));
+        long start = System.nanoTime();
+        boolean matched = replayer.replay(chip8);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        if (matched) {
+            System.out.println(String.format("Replay matched: %d frames in %.2f s, hash %016x",
+                                             replayer.getFrames(), seconds, replayer.getRollingHash()));
+        } else {
+            System.out.println(String.format("Replay diverged at frame %d of %d",
+                                             replayer.getDivergedAt(), replayer.getFrames()));
+        }
+        return matched;
+    }
+
+    /**
+     * Returns the one catalog entry the given text matches, or prints the candidates
+     * and returns null if it matches none or several.
+     */
+    private static RomCatalog.Entry findInCatalog(RomCatalog catalog, String text) {
+        List<RomCatalog.Entry> matches = catalog.search(text);
+        if (matches.size() == 1) {
+            return matches.get(0);
+        }
+        System.err.println(matches.isEmpty() ? "No ROM in the catalog matches " + text + "!"
+                                             : matches.size() + " ROMs match " + text + ":");
+        for (RomCatalog.Entry entry : matches) {
+            System.err.println("  " + entry.path);
+        }
+        return null;
+    }
+
     public static void main(String[] args) {
+        boolean jit = false;
+        boolean turbo = false;
+        int instructionsPerFrame = DEFAULT_INSTRUCTIONS_PER_FRAME;
+        boolean speedGiven = false;
+        String catalog = null;
+        int rewindMegabytes = RewindBuffer.DEFAULT_BUDGET_MB;
+        int audioMillis = LineAudioSink.DEFAULT_BUFFER_MILLIS;
+        boolean mute = false;
+        String wav = null;
+        QuirkProfile quirks = null;
+        String record = null;
+        String replay = null;
+        String ROM = null;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("--jit")) {
+                    jit = true;
+                } else if (args[i].equals("--turbo")) {
+                    turbo = true;
+                } else if (args[i].equals("--quirks")) {
+                    quirks = QuirkProfile.parse(args[++i]);
+                } else if (args[i].equals("--mute")) {
+                    mute = true;
+                } else if (args[i].equals("--audio-ms")) {
+                    audioMillis = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("--wav")) {
+                    wav = args[++i];
+                } else if (args[i].equals("--rewind-mb")) {
+                    rewindMegabytes = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("--record")) {
+                    record = args[++i];
+                } else if (args[i].equals("--replay")) {
+                    replay = args[++i];
+                } else if (args[i].equals("--ipf")) {
+                    instructionsPerFrame = Integer.parseInt(args[++i]);
+                    speedGiven = true;
+                } else if (args[i].equals("--catalog")) {
+                    catalog = args[++i];
+                } else {
+                    ROM = args[i];
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | IllegalArgumentException e) {
+            ROM = null;
+        }
+        if (ROM == null || instructionsPerFrame <= 0 || audioMillis <= 0) {
+            System.err.println("Usage: java Main [--jit] [--turbo] [--ipf instructions-per-frame]"
+                               + " [--rewind-mb megabytes] [--record file | --replay file]"
+                               + " [--mute | --audio-ms milliseconds | --wav file]"
+                               + " [--quirks cosmac_vip|chip48|super_chip|modern]"
+                               + " [--catalog dir] file.rom | --catalog dir search-text");
+            return;
+        }
+        if (catalog != null) {
+            try {
+                RomCatalog roms = RomCatalog.open(Paths.get(catalog), false);
+                RomCatalog.Entry entry;
+                if (Files.isRegularFile(Paths.get(ROM))) {
+                    entry = roms.findBySha1(QuirkProfile.sha1(Files.readAllBytes(Paths.get(ROM))));
+                } else {
+                    entry = findInCatalog(roms, ROM);
+                    if (entry == null) {
+                        return;
+                    }
+                    ROM = roms.resolve(entry).toString();
+                }
+                if (entry != null && quirks == null) {
+                    quirks = entry.quirks;
+                }
+                if (entry != null && !speedGiven && entry.instructionsPerFrame > 0) {
+                    instructionsPerFrame = entry.instructionsPerFrame;
+                }
+            } catch (IOException e) {
+                System.err.println("Could not read catalog " + catalog + ": " + e.getMessage());
+                return;
+            }
+        }
         try {
-            String ROM = args[0];
-            Main main = new Main(ROM);
-            main.start();
-        } catch (ArrayIndexOutOfBoundsException e) {
-            System.err.println("Usage: java Main file.rom");
-        }        
-        // DisplayFrame frame = new DisplayFrame(new Keypad());
-    }
-}
\ No newline at end of file
+            if (replay != null) {
+                System.exit(replay(ROM, replay, jit) ? 0 : 1);
+            }
+        } catch (IOException e) {
+            System.err.println("Could not replay " + replay + ": " + e.getMessage());
+            System.exit(2);
+        }
+        Main main = new Main(ROM, jit, instructionsPerFrame, turbo, rewindMegabytes);
+        if (quirks != null) {
+            main.setQuirks(quirks);
+        }
+        if (record != null) {
+            try {
+                main.startRecording(new File(record));
+            } catch (IOException e) {
+                System.err.println("Could not record to " + record + ": " + e.getMessage());
+                return;
+            }
+        }
+        if (wav != null) {
+            try {
+                main.startWavOutput(new File(wav));
+            } catch (IOException e) {
+                System.err.println("Could not write " + wav + ": " + e.getMessage());
+                return;
+            }
+        } else if (!mute) {
+            main.startAudio(audioMillis);
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            if (main.recorder != null) {
+                try {
+                    main.recorder.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            if (main.audio instanceof Closeable) {
+                try {
+                    ((Closeable)main.audio).close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            System.out.println(String.format("Idle: %.1f%%", main.chip8.getIdlePercentage()));
+            if (main.chip8.getCompiler() != null) {
+                System.out.println("JIT: " + main.chip8.getCompiler());
+            }
+        }));
+        main.start();
+    }
+}
@@ -4,14 +4,23 @@
  */
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 public class Memory {
 
     public static final char START_ADDRESS = 0x200;
     public static final char END_ADDRESS = 0xFFF;
     public static final char FONT_START_ADDRESS = 0x50;
+    public static final char LARGE_FONT_START_ADDRESS = 0xA0;
     public static final int MEM_SIZE_IN_BYTES = 4096;
 
+    /**
+     * XO-CHIP's address space. Memory grows to this size for ROMs too large for
+     * MEM_SIZE_IN_BYTES, or on request, e.g. when a ROM executes F000 NNNN.
+     */
+    public static final int XO_MEM_SIZE_IN_BYTES = 0x10000;
+
     public static final char[] FONT_SET= { 
         0xF0, 0x90, 0x90, 0x90, 0xF0, // 0
         0x20, 0x60, 0x20, 0x20, 0x70, // 1
@@ -30,35 +39,173 @@ public class Memory {
         0xF0, 0x80, 0xF0, 0x80, 0xF0, // E
         0xF0, 0x80, 0xF0, 0x80, 0x80  // F
     };
+
+    /**
+     * SUPER-CHIP's 8x10 digits, with A-F added in the same style.
+     */
+    public static final char[] LARGE_FONT_SET = {
+        0x3C, 0x7E, 0xE7, 0xC3, 0xC3, 0xC3, 0xC3, 0xE7, 0x7E, 0x3C, // 0
+        0x18, 0x38, 0x58, 0x18, 0x18, 0x18, 0x18, 0x18, 0x18, 0x3C, // 1
+        0x3E, 0x7F, 0xC3, 0x06, 0x0C, 0x18, 0x30, 0x60, 0xFF, 0xFF, // 2
+        0x3C, 0x7E, 0xC3, 0x03, 0x0E, 0x0E, 0x03, 0xC3, 0x7E, 0x3C, // 3
+        0x06, 0x0E, 0x1E, 0x36, 0x66, 0xC6, 0xFF, 0xFF, 0x06, 0x06, // 4
+        0xFF, 0xFF, 0xC0, 0xC0, 0xFC, 0xFE, 0x03, 0xC3, 0x7E, 0x3C, // 5
+        0x3E, 0x7C, 0xE0, 0xC0, 0xFC, 0xFE, 0xC3, 0xC3, 0x7E, 0x3C, // 6
+        0xFF, 0xFF, 0x03, 0x06, 0x0C, 0x18, 0x30, 0x60, 0x60, 0x60, // 7
+        0x3C, 0x7E, 0xC3, 0xC3, 0x7E, 0x7E, 0xC3, 0xC3, 0x7E, 0x3C, // 8
+        0x3C, 0x7E, 0xC3, 0xC3, 0x7F, 0x3F, 0x03, 0x03, 0x3E, 0x7C, // 9
+        0x3C, 0x7E, 0xC3, 0xC3, 0xFF, 0xFF, 0xC3, 0xC3, 0xC3, 0xC3, // A
+        0xFC, 0xFE, 0xC3, 0xC3, 0xFE, 0xFE, 0xC3, 0xC3, 0xFE, 0xFC, // B
+        0x3C, 0x7E, 0xC3, 0xC0, 0xC0, 0xC0, 0xC0, 0xC3, 0x7E, 0x3C, // C
+        0xFC, 0xFE, 0xC3, 0xC3, 0xC3, 0xC3, 0xC3, 0xC3, 0xFE, 0xFC, // D
+        0xFF, 0xFF, 0xC0, 0xC0, 0xFC, 0xFC, 0xC0, 0xC0, 0xFF, 0xFF, // E
+        0xFF, 0xFF, 0xC0, 0xC0, 0xFC, 0xFC, 0xC0, 0xC0, 0xC0, 0xC0  // F
+    };
     
-    private byte[] memory;
+    /**
+     * Memory is split into pages that machines forked from one another share until one
+     * of them writes. Bit p of ownedPages is set when pages[p] belongs to this Memory
+     * alone and may be written in place; otherwise write() copies it first. There are
+     * NUM_OF_PAGES pages until the address space grows.
+     */
+    public static final int PAGE_BITS = 8;
+    public static final int PAGE_SIZE = 1 << PAGE_BITS;
+    public static final int NUM_OF_PAGES = MEM_SIZE_IN_BYTES / PAGE_SIZE;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    /**
+     * Shared by every Memory: the pages below START_ADDRESS holding the font sets, and
+     * a blank page.
+     */
+    private static final byte[][] FONT_PAGES = new byte[START_ADDRESS >> PAGE_BITS][PAGE_SIZE];
+    private static final byte[] ZERO_PAGE = new byte[PAGE_SIZE];
+
+    static {
+        for (int i = 0; i < FONT_SET.length; i++) {
+            int address = FONT_START_ADDRESS + i;
+            FONT_PAGES[address >> PAGE_BITS][address & PAGE_MASK] = (byte)FONT_SET[i];
+        }
+        for (int i = 0; i < LARGE_FONT_SET.length; i++) {
+            int address = LARGE_FONT_START_ADDRESS + i;
+            FONT_PAGES[address >> PAGE_BITS][address & PAGE_MASK] = (byte)LARGE_FONT_SET[i];
+        }
+    }
+
+    private byte[][] pages;
+    private long[] ownedPages;
+    private char endAddress;
     private int gameLength;
 
+    /**
+     * Decoded instructions, paged and shared the same way. A shared page is only ever
+     * filled with what every sharer would decode, since a machine that writes to memory
+     * page p first takes private copies of decoded pages p and p - 1 (whose last entry
+     * reads the first byte of p).
+     */
+    private Instruction[][] decoded;
+    private long[] ownedDecoded;
+    private WriteListener writeListener;
+
+    /**
+     * Notified of every write() after it lands.
+     */
+    public interface WriteListener {
+        /**
+         * Called after the byte at the given address changes.
+         * @param address - address written to
+         */
+        public void written(char address);
+    }
+
     /**
      * Constructs new Memory object.
      */
     public Memory() {
-        memory = new byte[MEM_SIZE_IN_BYTES];
+        pages = new byte[NUM_OF_PAGES][];
+        decoded = new Instruction[NUM_OF_PAGES][];
+        ownedPages = new long[1];
+        ownedDecoded = new long[1];
+        endAddress = END_ADDRESS;
         gameLength = -1;
         loadFontSet();
     }
 
+    /**
+     * Constructs a Memory sharing every page with the given one.
+     */
+    private Memory(Memory other) {
+        pages = other.pages.clone();
+        decoded = other.decoded.clone();
+        ownedPages = new long[other.ownedPages.length];
+        ownedDecoded = new long[other.ownedDecoded.length];
+        endAddress = other.endAddress;
+        gameLength = other.gameLength;
+    }
+
+    /**
+     * Returns a copy of this memory. The two share all pages until either writes to
+     * one, so forking costs a few dozen bytes however much of memory is in use.
+     * @return copy of this memory, with no write listener
+     */
+    public Memory fork() {
+        Memory copy = new Memory(this);
+        Arrays.fill(ownedPages, 0L);
+        Arrays.fill(ownedDecoded, 0L);
+        return copy;
+    }
+
+    /**
+     * Returns the size of the address space in bytes.
+     */
+    public int getSize() {
+        return endAddress + 1;
+    }
+
+    /**
+     * Grows or shrinks the address space. New addresses read as zero; contents of
+     * dropped addresses are lost.
+     * @param size - MEM_SIZE_IN_BYTES, XO_MEM_SIZE_IN_BYTES, or a multiple of PAGE_SIZE
+     *               between them
+     * @throws IllegalArgumentException if size is not one of those
+     */
+    public void setSize(int size) {
+        checkSize(size);
+        int count = size >> PAGE_BITS;
+        int old = pages.length;
+        if (count == old) {
+            return;
+        }
+        pages = Arrays.copyOf(pages, count);
+        decoded = Arrays.copyOf(decoded, count);
+        for (int p = old; p < count; p++) {
+            pages[p] = ZERO_PAGE;
+        }
+        ownedPages = resizeBits(ownedPages, count);
+        ownedDecoded = resizeBits(ownedDecoded, count);
+        endAddress = (char)(size - 1);
+    }
+
+    private static void checkSize(int size) {
+        if (size < MEM_SIZE_IN_BYTES || size > XO_MEM_SIZE_IN_BYTES || size % PAGE_SIZE != 0) {
+            throw new IllegalArgumentException("Unsupported memory size " + size + "!");
+        }
+    }
+
     /**
      * Returns byte at given address
      * @param address - address at which memory is read
      * @return byte at given address
      * @throws IllegalStateException if ROM File not yet loaded
      * @throws IllegalArgumentException if address is out of bounds
-     *                                  (addr < 0 || addr > END_ADDRESS)
+     *                                  (addr < 0 || addr >= getSize())
      */
     public byte read(char address) {
         if (gameLength == -1) {
             throw new IllegalStateException("ROM File not yet loaded!");
-        } else if (address < 0x0 || address > END_ADDRESS) {
-            String error = String.format("Given address %04x out of bounds!", (int)address);
-            throw new IllegalArgumentException(error);
+        } else if (address < 0x0 || address > endAddress) {
+            throw outOfBounds(address);
         }
-        return memory[address];
+        return pages[address >> PAGE_BITS][address & PAGE_MASK];
     }
 
     /**
@@ -67,15 +214,27 @@ public class Memory {
      * @param value - value that will be replacing old value
      * @throws IllegalStateException if ROM File not yet loaded
      * @throws IllegalArgumentException if address is out of bounds
-     *                                  (addr < START_ADDRESS || addr > END_ADDRESS)
+     *                                  (addr < START_ADDRESS || addr >= getSize())
      */
     public void write(char address, byte value) {
         if (gameLength == -1) {
             throw new IllegalStateException("ROM File not yet loaded!");
-        } else if (address < START_ADDRESS || address > END_ADDRESS) {
-            throw new IllegalArgumentException("Given address out of bounds!");
+        } else if (address < START_ADDRESS || address > endAddress) {
+            throw outOfBounds(address);
+        }
+        writablePage(address >> PAGE_BITS)[address & PAGE_MASK] = value;
+        invalidate(address);
+        if (writeListener != null) {
+            writeListener.written(address);
         }
-        memory[address] = value;
+    }
+
+    /**
+     * Sets the listener notified of writes, replacing any previous one.
+     * @param writeListener - listener, or null for none
+     */
+    public void setWriteListener(WriteListener writeListener) {
+        this.writeListener = writeListener;
     }
 
     /**
@@ -84,30 +243,61 @@ public class Memory {
      * @return char opcode at given address
      * @throws IllegalStateException if ROM File not yet loaded
      * @throws IllegalArgumentException if address is out of bounds
-     *                                  (addr < START_ADDRESS || addr > END_ADDRESS)
+     *                                  (addr < START_ADDRESS || addr >= getSize())
      */
     public char getOpcode(char address) {
         if (gameLength == -1) {
             throw new IllegalStateException("ROM File not yet loaded!");
-        } else if (address < START_ADDRESS|| address > END_ADDRESS) {
-            throw new IllegalArgumentException(String.format("Given address %04x out of bounds!", 
-                                                              (int)address));
+        } else if (address < START_ADDRESS || address > endAddress) {
+            throw outOfBounds(address);
+        }
+        byte[] page = pages[address >> PAGE_BITS];
+        int offset = address & PAGE_MASK;
+        int low = offset < PAGE_MASK ? page[offset + 1] : pages[(address >> PAGE_BITS) + 1][0];
+        return (char)(((page[offset] & 0xFF) << 8) | (low & 0xFF));
+    }
+
+    /**
+     * Returns the decoded instruction at the given address. Instructions in the program
+     * area are decoded on first execution and cached until write() touches either of
+     * their bytes, so self-modifying ROMs stay correct.
+     * @param address - address at which to read the instruction
+     * @return decoded instruction at given address
+     * @throws IllegalStateException if ROM File not yet loaded
+     * @throws IllegalArgumentException if address is out of bounds
+     *                                  (addr < START_ADDRESS || addr >= getSize())
+     */
+    public Instruction getInstruction(char address) {
+        if (address >= START_ADDRESS && address < endAddress) {
+            int pageNumber = address >> PAGE_BITS;
+            Instruction[] page = decoded[pageNumber];
+            if (page == null) {
+                page = new Instruction[PAGE_SIZE];
+                decoded[pageNumber] = page;
+                ownedDecoded[pageNumber >> 6] |= 1L << pageNumber;
+            }
+            Instruction instruction = page[address & PAGE_MASK];
+            if (instruction == null) {
+                instruction = Instruction.decode(getOpcode(address));
+                page[address & PAGE_MASK] = instruction;
+            }
+            return instruction;
         }
-        return (char)(((memory[address] & 0xFF) << 8) | (memory[address + 1] & 0xFF));
+        return Instruction.decode(getOpcode(address));
     }
 
     /**
      * Loads contents of given ROM file into memory.
      * @param fileName - String of file name
      * @throws IllegalArgumentException if ROM file is too small (0 bytes), or too large, i.e.,
-     *                                  if its size in bytes is larger than MEM_SIZE_IN_BYTES - START_ADDRESS.
+     *                                  if its size in bytes is larger than XO_MEM_SIZE_IN_BYTES - START_ADDRESS.
      */
     public void loadROM(String fileName) {
         try {
             System.out.println("Loading ROM File...");
             File ROMFile = new File(fileName);
             int fileLength = (int)ROMFile.length();
-            if (fileLength > MEM_SIZE_IN_BYTES - START_ADDRESS) {
+            if (fileLength > XO_MEM_SIZE_IN_BYTES - START_ADDRESS) {
                 throw new IllegalArgumentException("ROM file too big for memory!");
             } else if (fileLength == 0) {
                 throw new IllegalArgumentException("ROM file too small!");
@@ -115,12 +305,8 @@ public class Memory {
             InputStream inputStream = new FileInputStream(ROMFile);
             byte[] gameData = new byte[fileLength];
             inputStream.read(gameData);
-            for (int i = 0; i < gameData.length; i++) {
-                memory[START_ADDRESS + i] = gameData[i];
-            }
-            gameLength = fileLength;
-            inputStream.read(gameData);
             inputStream.close();
+            loadROM(gameData);
             System.out.println("File loaded!");
         } catch (Exception e) {
             gameLength = -1;
@@ -128,6 +314,111 @@ public class Memory {
         }
     }
 
+    /**
+     * Loads the given ROM image into memory, growing the address space to
+     * XO_MEM_SIZE_IN_BYTES if the image needs it.
+     * @param gameData - contents of a ROM file
+     * @throws IllegalArgumentException if the image is empty or too large, i.e., if its
+     *                                  size in bytes is larger than XO_MEM_SIZE_IN_BYTES - START_ADDRESS.
+     */
+    public void loadROM(byte[] gameData) {
+        if (gameData.length > XO_MEM_SIZE_IN_BYTES - START_ADDRESS) {
+            throw new IllegalArgumentException("ROM file too big for memory!");
+        } else if (gameData.length == 0) {
+            throw new IllegalArgumentException("ROM file too small!");
+        } else if (gameData.length > getSize() - START_ADDRESS) {
+            setSize(XO_MEM_SIZE_IN_BYTES);
+        }
+        for (int p = START_ADDRESS >> PAGE_BITS; p < pages.length; p++) {
+            int offset = (p << PAGE_BITS) - START_ADDRESS;
+            if (offset < gameData.length) {
+                pages[p] = new byte[PAGE_SIZE];
+                System.arraycopy(gameData, offset, pages[p], 0, Math.min(PAGE_SIZE, gameData.length - offset));
+                ownedPages[p >> 6] |= 1L << p;
+            } else {
+                pages[p] = ZERO_PAGE;
+                ownedPages[p >> 6] &= ~(1L << p);
+            }
+        }
+        dropDecoded();
+        gameLength = gameData.length;
+    }
+
+    /**
+     * Returns a copy of the ROM image as it is now in memory, i.e. as loaded until the
+     * program writes over itself.
+     * @return ROM image, or an empty array if no ROM is loaded
+     */
+    public byte[] getROM() {
+        byte[] gameData = new byte[Math.max(0, gameLength)];
+        for (int i = 0; i < gameData.length; i++) {
+            int address = START_ADDRESS + i;
+            gameData[i] = pages[address >> PAGE_BITS][address & PAGE_MASK];
+        }
+        return gameData;
+    }
+
+    /**
+     * Number of bytes snapshot() writes with the default address space, and at most.
+     */
+    public static final int SNAPSHOT_SIZE = 4 + 4 + MEM_SIZE_IN_BYTES;
+    public static final int MAX_SNAPSHOT_SIZE = 4 + 4 + XO_MEM_SIZE_IN_BYTES;
+
+    /**
+     * Returns the number of bytes snapshot() writes at the current size.
+     */
+    public int getSnapshotSize() {
+        return 4 + 4 + getSize();
+    }
+
+    /**
+     * Checks the snapshot starting at the given index of the buffer without reading
+     * past it, so a caller can validate a whole save state before restoring any of it.
+     * @param buffer - buffer holding data written by snapshot()
+     * @param index - index of the snapshot's first byte
+     * @return number of bytes in the snapshot
+     * @throws IllegalArgumentException if the snapshot's size is not supported, or the
+     *                                  buffer ends before the snapshot does
+     */
+    public static int checkSnapshot(ByteBuffer buffer, int index) {
+        if (buffer.limit() - index < 8) {
+            throw new IllegalArgumentException("Memory snapshot is truncated!");
+        }
+        int size = buffer.getInt(index + 4);
+        checkSize(size);
+        if (buffer.limit() - index < 8 + size) {
+            throw new IllegalArgumentException("Memory snapshot is truncated!");
+        }
+        return 8 + size;
+    }
+
+    /**
+     * Writes the contents of memory to the given buffer at its position.
+     * @param buffer - buffer with at least getSnapshotSize() bytes remaining
+     */
+    public void snapshot(ByteBuffer buffer) {
+        buffer.putInt(gameLength);
+        buffer.putInt(getSize());
+        for (int p = 0; p < pages.length; p++) {
+            buffer.put(pages[p]);
+        }
+    }
+
+    /**
+     * Replaces the contents of memory with a snapshot read from the given buffer at its
+     * position, and drops every cached instruction.
+     * @param buffer - buffer positioned at data written by snapshot()
+     * @throws IllegalArgumentException if the snapshot's size is not supported
+     */
+    public void restore(ByteBuffer buffer) {
+        gameLength = buffer.getInt();
+        setSize(buffer.getInt());
+        for (int p = 0; p < pages.length; p++) {
+            buffer.get(writablePage(p));
+        }
+        dropDecoded();
+    }
+
     /**
      * Outputs values of RAM containing game to file named output.rom
      * @throws IllegalStateException if ROM File has not yet loaded successfully
@@ -140,7 +431,7 @@ public class Memory {
             PrintStream output = new PrintStream("output.rom");
             int elementsPrinted = 0;
             for (int i = START_ADDRESS; i < START_ADDRESS + gameLength; i++) {
-                output.print(String.format("%02x ", memory[i]).toUpperCase());
+                output.print(String.format("%02x ", pages[i >> PAGE_BITS][i & PAGE_MASK]).toUpperCase());
                 elementsPrinted++;
                 if (elementsPrinted % 16 == 0) {
                     output.println();
@@ -154,13 +445,87 @@ public class Memory {
     }
 
     /**
-     * Loads font set into dedicated memory
+     * Builds the exception for an out of bounds access. Kept out of read(), write() and
+     * getOpcode() so their hot paths stay small enough to inline and never format.
+     */
+    private static IllegalArgumentException outOfBounds(char address) {
+        return new IllegalArgumentException(String.format("Given address %04x out of bounds!", (int)address));
+    }
+
+    /**
+     * Returns page p for writing, first replacing it with a private copy if it may be
+     * shared. Taking ownership of a memory page also privatizes the decoded pages whose
+     * entries read from it, so other machines never see them change.
+     */
+    private byte[] writablePage(int p) {
+        if ((ownedPages[p >> 6] & (1L << p)) == 0) {
+            pages[p] = pages[p].clone();
+            ownedPages[p >> 6] |= 1L << p;
+            privatizeDecoded(p);
+            if (p > 0) {
+                privatizeDecoded(p - 1);
+            }
+        }
+        return pages[p];
+    }
+
+    private void privatizeDecoded(int p) {
+        if (decoded[p] != null && (ownedDecoded[p >> 6] & (1L << p)) == 0) {
+            decoded[p] = decoded[p].clone();
+            ownedDecoded[p >> 6] |= 1L << p;
+        }
+    }
+
+    /**
+     * Returns the given ownership bits resized for count pages, with no bits set at or
+     * beyond count.
+     */
+    private static long[] resizeBits(long[] bits, int count) {
+        bits = Arrays.copyOf(bits, (count + 63) >> 6);
+        if ((count & 63) != 0) {
+            bits[bits.length - 1] &= (1L << count) - 1;
+        }
+        return bits;
+    }
+
+    /**
+     * Drops every cached instruction, clearing owned pages in place and letting go of
+     * shared ones.
+     */
+    private void dropDecoded() {
+        for (int p = 0; p < decoded.length; p++) {
+            if ((ownedDecoded[p >> 6] & (1L << p)) != 0) {
+                Arrays.fill(decoded[p], null);
+            } else {
+                decoded[p] = null;
+            }
+        }
+    }
+
+    /**
+     * Drops cached instructions that overlap the given address. write() has already
+     * made the pages involved private.
+     */
+    private void invalidate(char address) {
+        clearDecoded(address);
+        if (address > START_ADDRESS) {
+            clearDecoded(address - 1);
+        }
+    }
+
+    private void clearDecoded(int address) {
+        Instruction[] page = decoded[address >> PAGE_BITS];
+        if (page != null) {
+            page[address & PAGE_MASK] = null;
+        }
+    }
+
+    /**
+     * Maps the shared font pages, and blank pages everywhere else.
      */
     private void loadFontSet() {
-        char address = FONT_START_ADDRESS;
-        for (int i = 0; i < FONT_SET.length; i++) {
-            memory[address] = (byte)FONT_SET[i];
-            address++;
+        for (int p = 0; p < NUM_OF_PAGES; p++) {
+            pages[p] = p < FONT_PAGES.length ? FONT_PAGES[p] : ZERO_PAGE;
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,183 @@
+/**
+ * Behaviours that differ between Chip-8 interpreters and that ROMs written for one of
+ * them rely on. A Chip8 builds its handler table, and BlockCompiler its code, from one
+ * profile up front, so the hot loop never tests a quirk flag. The profile for a ROM is
+ * looked up by the SHA-1 of its image; unknown ROMs get MODERN.
+ * @author Andrew Cheung
+ */
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+public enum QuirkProfile {
+    /**
+     * The original RCA COSMAC VIP interpreter (1977).
+     */
+    COSMAC_VIP(true, true, false, IndexIncrement.X_PLUS_ONE, true, true),
+
+    /**
+     * CHIP-48 on the HP-48 calculators (1990).
+     */
+    CHIP48(false, false, true, IndexIncrement.X, true, false),
+
+    /**
+     * SUPER-CHIP 1.1 on the HP-48 (1991).
+     */
+    SUPER_CHIP(false, false, true, IndexIncrement.NONE, true, false),
+
+    /**
+     * What most ROMs written since expect, and this emulator's behaviour before profiles.
+     */
+    MODERN(false, false, false, IndexIncrement.NONE, false, false);
+
+    /**
+     * Ways Fx55 and Fx65 move I.
+     */
+    public enum IndexIncrement {
+        NONE, X, X_PLUS_ONE
+    }
+
+    /**
+     * 8xy1, 8xy2 and 8xy3 clear VF.
+     */
+    public final boolean logicResetsVF;
+
+    /**
+     * 8xy6 and 8xyE shift Vy into Vx, rather than shifting Vx in place.
+     */
+    public final boolean shiftsVy;
+
+    /**
+     * Bxnn jumps to xnn + Vx, rather than Bnnn jumping to nnn + V0.
+     */
+    public final boolean jumpsWithVx;
+
+    /**
+     * How far Fx55 and Fx65 move I past the first register: not at all, by x, or by x + 1.
+     */
+    public final IndexIncrement indexIncrement;
+
+    /**
+     * Sprites are clipped at the edges of the screen rather than wrapping around. Where
+     * a sprite starts always wraps.
+     */
+    public final boolean clipsSprites;
+
+    /**
+     * Dxyn waits for the next frame before the program continues, as the VIP's drew
+     * in the display interrupt.
+     */
+    public final boolean drawWaitsForFrame;
+
+    private static final Map<String, QuirkProfile> KNOWN_ROMS = new HashMap<String, QuirkProfile>();
+
+    static {
+        // COSMAC VIP programs, per their release year or documentation
+        String[] vip = {
+            "a27dcf88a931f70c3ccf3c01a5410b263bac48bc", // Animal Race [Brian Astle]
+            "3368d56efeb584c509bafb548f1ee5e71ac1bc70", // Biorhythm [Jef Winsor]
+            "b3fed4ed1eb0ed693c9731dbe53b29a76236c781", // Bowling [Gooitzen van der Wal]
+            "193915dcde1365ae054c4eaa21a35baa27cd3356", // Breakout [Carmelo Cortez, 1979]
+            "614a2b3d0bb5d62a16d963ac2d3a79eb3dd22742", // Coin Flipping [Carmelo Cortez, 1978]
+            "35158696bd94ea22ef34e899fff1f15f7154d4fd", // Craps [Camerlo Cortez, 1978]
+            "8e5f19d8ae9f3346779613359610967a5ed95fa8", // Deflection [John Fort]
+            "dbb52193db4063149c3d8768ab47dd740d90955c", // Hi-Lo [Jef Winsor, 1978]
+            "fc724ae0125f5f1ac94a79fe3afc6318b1f57556", // Kaleidoscope [Joseph Weisbecker, 1978]
+            "72e8f3a10a32bd7fb91322ecab87249f95e81e57", // Lunar Lander (Udo Pernisz, 1979)
+            "669e32b6f42f52da658e428f501aabcdfa37fb2e", // Mastermind FourRow (Robert Lindley, 1978)
+            "fa7c04f68d78e0faf6d136a3babe3943fc2e02f1", // Most Dangerous Game [Peter Maruhnic]
+            "4031dae5c7545a1adc160a661be36f19fc1d47b2", // Nim [Carmelo Cortez, 1978]
+            "726cb39afa7e17725af7fab37d153277d86bff77", // Programmable Spacefighters [Jef Winsor]
+            "ff639eceaf221ae66151a03779b41fae7118d2d8", // Reversi [Philip Baltzer]
+            "3d1d029d6e31206d245c0ba881c0d1f003953bad", // Rocket [Joseph Weisbecker, 1978]
+            "24960090b2afc9de2a4cb3ee7daf6a21456bb49b", // Russian Roulette [Carmelo Cortez, 1978]
+            "448f9d30d2157ab42679b809d4fb0b43d145f74f", // Sequence Shoot [Joyce Weisbecker]
+            "443550abf646bc7f475ef0466f8e1232ec7474f3", // Shooting Stars [Philip Baltzer, 1978]
+            "7623fa0fa915979226566b24107360e7537735f4", // Slide [Joyce Weisbecker]
+            "ed829190e37815771e7a8c675ba0074996a2ddb0", // Space Intercept [Joseph Weisbecker, 1978]
+            "1bd92042717c3bc4f7f34cab34be2887145a6704", // Spooky Spot [Joseph Weisbecker, 1978]
+            "89aadf7c28bcd1c11e71ad9bd6eeaf0e7be474f3", // Submarine [Carmelo Cortez, 1978]
+            "83a2f9c8153be955c28e788bd803aa1d25131330", // Sum Fun [Joyce Weisbecker]
+            "8d56a781bf16acccb307177b80ff326f62aabbdc", // Hires Test [Tom Swan, 1979]
+        };
+        for (String sha1 : vip) {
+            KNOWN_ROMS.put(sha1, COSMAC_VIP);
+        }
+        // written for CHIP-48
+        KNOWN_ROMS.put("f13766c14aeb02ad8d4d103cb5eadd282d20cddc", CHIP48); // Brix [Andreas Gustafsson, 1990]
+        KNOWN_ROMS.put("1bdb4ddaa7049266fa3226851f28855a365cfd12", CHIP48); // Syzygy [Roy Trevino, 1990]
+        KNOWN_ROMS.put("5f518084744bf3cb8733f6e5454dfd1634320563", CHIP48); // Tetris [Fran Dachille, 1991]
+        KNOWN_ROMS.put("bdb92475acfe11bc7814a2f5eade13fcd09b756a", CHIP48); // UFO [Lutz V, 1992]
+        // written for SUPER-CHIP
+        KNOWN_ROMS.put("d40abc54374e4343639f993e897e00904ddf85d9", SUPER_CHIP); // Blinky [Hans Christian Egeberg, 1991]
+        KNOWN_ROMS.put("f4169141735d8d60e51409ca7e73f4adedcefef2", SUPER_CHIP); // Blinky [Hans Christian Egeberg] (alt)
+    }
+
+    private QuirkProfile(boolean logicResetsVF, boolean shiftsVy, boolean jumpsWithVx,
+                         IndexIncrement indexIncrement, boolean clipsSprites, boolean drawWaitsForFrame) {
+        this.logicResetsVF = logicResetsVF;
+        this.shiftsVy = shiftsVy;
+        this.jumpsWithVx = jumpsWithVx;
+        this.indexIncrement = indexIncrement;
+        this.clipsSprites = clipsSprites;
+        this.drawWaitsForFrame = drawWaitsForFrame;
+    }
+
+    /**
+     * Returns the profile for the given ROM image.
+     * @param ROM - contents of a ROM file
+     * @return profile the ROM is known to need, or MODERN
+     */
+    public static QuirkProfile forRom(byte[] ROM) {
+        QuirkProfile profile = KNOWN_ROMS.get(sha1(ROM));
+        return profile == null ? MODERN : profile;
+    }
+
+    /**
+     * Returns the profile with the given name, ignoring case, e.g. "cosmac_vip".
+     * @throws IllegalArgumentException if there is no such profile
+     */
+    public static QuirkProfile parse(String name) {
+        return valueOf(name.toUpperCase());
+    }
+
+    /**
+     * Returns a hash of every profile's behaviours and of the table of known ROMs. It
+     * changes whenever forRom() could answer differently, so caches of its results
+     * can tell when they are stale.
+     */
+    public static String tableHash() {
+        StringBuilder table = new StringBuilder();
+        for (QuirkProfile profile : values()) {
+            table.append(profile.name()).append(' ').append(profile.logicResetsVF).append(' ')
+                 .append(profile.shiftsVy).append(' ').append(profile.jumpsWithVx).append(' ')
+                 .append(profile.indexIncrement).append(' ').append(profile.clipsSprites).append(' ')
+                 .append(profile.drawWaitsForFrame).append('\n');
+        }
+        for (Map.Entry<String, QuirkProfile> rom : new TreeMap<String, QuirkProfile>(KNOWN_ROMS).entrySet()) {
+            table.append(rom.getKey()).append(' ').append(rom.getValue().name()).append('\n');
+        }
+        return sha1(table.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Returns the SHA-1 of the given bytes as lowercase hex.
+     */
+    public static String sha1(byte[] data) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(data);
+            StringBuilder hex = new StringBuilder(2 * digest.length);
+            for (byte b : digest) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform is required to provide SHA-1
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,280 @@
+/**
+ * Fixed-budget history of per-frame Chip8 snapshots for rewinding.
+ * Every KEYFRAME_INTERVAL-th frame is stored whole as a keyframe; the frames between
+ * are stored as the XOR of their snapshot against that keyframe, run-length encoded
+ * so unchanged bytes cost almost nothing. Restoring any frame is one keyframe copy
+ * plus one delta decode, so stepping back takes the same time however far back it goes.
+ * When the budget is used up, the oldest keyframe and its deltas are dropped together.
+ * Snapshots grow when an XO-CHIP ROM grows memory; a frame whose snapshot length
+ * differs from its keyframe's starts a new keyframe.
+ * @author Andrew Cheung
+ */
+
+import java.nio.ByteBuffer;
+
+public class RewindBuffer {
+    public static final int DEFAULT_BUDGET_MB = 16;
+    public static final int KEYFRAME_INTERVAL = 60;
+
+    /**
+     * Smallest record size assumed when sizing the frame index.
+     */
+    private static final int MIN_RECORD_BYTES = 64;
+
+    /**
+     * Largest snapshot, which the working buffers are sized for.
+     */
+    private final int snapshotSize;
+
+    /**
+     * Records, laid end to end and wrapping to the start when the next one doesn't fit.
+     */
+    private final byte[] arena;
+    private int writePos;
+
+    /**
+     * Per-frame index, a ring addressed by frame sequence number modulo its length.
+     */
+    private final int[] offsets;
+    private final int[] lengths;
+    private final long[] keyframes;
+    private long tailSeq;
+    private long headSeq;
+
+    /**
+     * Snapshot of the keyframe new deltas are taken against, and its sequence number,
+     * or -1 if the next frame must be a keyframe.
+     */
+    private final byte[] keyframe;
+    private int keyframeLength;
+    private long keyframeSeq;
+
+    private final byte[] current;
+    private int currentLength;
+    private final ByteBuffer currentBuffer;
+    private final byte[] encoded;
+
+    /**
+     * Constructs an empty rewind buffer.
+     * @param budgetMegabytes - memory to use for records, in MB
+     * @throws IllegalArgumentException if the budget can't hold two keyframes
+     */
+    public RewindBuffer(int budgetMegabytes) {
+        snapshotSize = Chip8.SNAPSHOT_SIZE;
+        long budget = (long)budgetMegabytes << 20;
+        if (budget < 2L * maxRecordSize(snapshotSize) || budget > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Rewind budget out of range!");
+        }
+        arena = new byte[(int)budget];
+        int frames = (int)(budget / MIN_RECORD_BYTES);
+        offsets = new int[frames];
+        lengths = new int[frames];
+        keyframes = new long[frames];
+        keyframe = new byte[snapshotSize];
+        keyframeSeq = -1;
+        current = new byte[snapshotSize];
+        currentBuffer = ByteBuffer.wrap(current);
+        encoded = new byte[maxRecordSize(snapshotSize)];
+    }
+
+    /**
+     * Records the state of the given machine as the newest frame.
+     * @param chip8 - machine to record, normally just after runFrame()
+     */
+    public void record(Chip8 chip8) {
+        chip8.snapshot(currentBuffer);
+        currentLength = currentBuffer.limit();
+        if (keyframeSeq < 0 || headSeq - keyframeSeq >= KEYFRAME_INTERVAL
+            || currentLength != keyframeLength || !storeDelta()) {
+            storeKeyframe();
+        }
+    }
+
+    /**
+     * Drops the newest frame and restores the given machine to the one before it.
+     * @param chip8 - machine to restore
+     * @return false if there was no earlier frame, in which case nothing changes
+     */
+    public boolean stepBack(Chip8 chip8) {
+        if (size() < 2) {
+            return false;
+        }
+        headSeq--;
+        int slot = slot(headSeq);
+        writePos = offsets[slot];
+        if (keyframes[slot] == headSeq) {
+            keyframeSeq = -1;
+        }
+        load(headSeq - 1);
+        currentBuffer.clear();
+        currentBuffer.limit(currentLength);
+        chip8.restore(currentBuffer);
+        return true;
+    }
+
+    /**
+     * Returns the number of frames held.
+     */
+    public int size() {
+        return (int)(headSeq - tailSeq);
+    }
+
+    /**
+     * Stores current whole and makes it the keyframe for following deltas.
+     */
+    private void storeKeyframe() {
+        System.arraycopy(current, 0, keyframe, 0, currentLength);
+        keyframeLength = currentLength;
+        keyframeSeq = headSeq;
+        int offset = reserve(currentLength, false);
+        System.arraycopy(current, 0, arena, offset, currentLength);
+        append(offset, currentLength, headSeq);
+    }
+
+    /**
+     * Stores current as a delta against the keyframe.
+     * @return false if there was only room by dropping the keyframe itself
+     */
+    private boolean storeDelta() {
+        int length = encodeDelta();
+        int offset = reserve(length, true);
+        if (offset < 0) {
+            return false;
+        }
+        System.arraycopy(encoded, 0, arena, offset, length);
+        append(offset, length, keyframeSeq);
+        return true;
+    }
+
+    /**
+     * Run-length encodes current XOR keyframe into encoded as pairs of
+     * (varint count of zero bytes, varint count of literal bytes, literal bytes).
+     * @return encoded length
+     */
+    private int encodeDelta() {
+        int out = 0;
+        int i = 0;
+        while (i < currentLength) {
+            int zeros = i;
+            while (i < currentLength && current[i] == keyframe[i]) {
+                i++;
+            }
+            int literals = i;
+            while (i < currentLength && current[i] != keyframe[i]) {
+                i++;
+            }
+            out = putVarint(literals - zeros, out);
+            out = putVarint(i - literals, out);
+            for (int j = literals; j < i; j++) {
+                encoded[out++] = (byte)(current[j] ^ keyframe[j]);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Rebuilds the snapshot of the given frame into current.
+     */
+    private void load(long seq) {
+        int slot = slot(seq);
+        int keySlot = slot(keyframes[slot]);
+        currentLength = lengths[keySlot];
+        System.arraycopy(arena, offsets[keySlot], current, 0, currentLength);
+        if (keySlot == slot) {
+            return;
+        }
+        int in = offsets[slot];
+        int end = in + lengths[slot];
+        int i = 0;
+        while (in < end) {
+            int zeros = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = arena[in++];
+                zeros |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            int literals = 0;
+            shift = 0;
+            do {
+                b = arena[in++];
+                literals |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            i += zeros;
+            for (int j = 0; j < literals; j++) {
+                current[i++] ^= arena[in++];
+            }
+        }
+    }
+
+    /**
+     * Finds room in the arena for a record of the given length, dropping the oldest
+     * keyframe groups as needed.
+     * @param delta - true if the record depends on the current keyframe, which must
+     *                then not be dropped
+     * @return offset of the free space, or -1 if a delta would need its own keyframe dropped
+     */
+    private int reserve(int length, boolean delta) {
+        int offset = writePos + length > arena.length ? 0 : writePos;
+        while (size() > 0 && (size() == offsets.length || overlapsLive(offset, length))) {
+            if (delta && keyframes[slot(tailSeq)] == keyframeSeq) {
+                return -1;
+            }
+            dropOldestGroup();
+        }
+        if (size() == 0) {
+            offset = 0;
+        }
+        writePos = offset + length;
+        return offset;
+    }
+
+    /**
+     * Returns whether [offset, offset + length) overlaps a live record. Live records
+     * run from the oldest record's offset to writePos, wrapping past the arena's end.
+     */
+    private boolean overlapsLive(int offset, int length) {
+        int oldest = offsets[slot(tailSeq)];
+        if (oldest < writePos) {
+            return offset < writePos && oldest < offset + length;
+        }
+        return offset < writePos || oldest < offset + length;
+    }
+
+    private void dropOldestGroup() {
+        long key = keyframes[slot(tailSeq)];
+        while (size() > 0 && keyframes[slot(tailSeq)] == key) {
+            tailSeq++;
+        }
+    }
+
+    private void append(int offset, int length, long key) {
+        int slot = slot(headSeq);
+        offsets[slot] = offset;
+        lengths[slot] = length;
+        keyframes[slot] = key;
+        headSeq++;
+    }
+
+    private int putVarint(int value, int out) {
+        while (value >= 0x80) {
+            encoded[out++] = (byte)(value | 0x80);
+            value >>>= 7;
+        }
+        encoded[out++] = (byte)value;
+        return out;
+    }
+
+    private int slot(long seq) {
+        return (int)(seq % offsets.length);
+    }
+
+    /**
+     * Worst case encoded size: every other byte changed, each run costing two varints.
+     */
+    private static int maxRecordSize(int snapshotSize) {
+        return snapshotSize + (snapshotSize / 2 + 1) * 2 * 3;
+    }
+}
@@ -0,0 +1,460 @@
+/**
+ * Index of the ROMs under a directory tree. Each ROM is hashed and described once:
+ * title, author and year come from the "Title [Author, Year]" file naming used by
+ * most ROM packs, and platform and recommended speed from the .txt sidecar next to it
+ * (or the directory's "!...txt" notes). The index is kept in a compact binary cache
+ * at the root of the tree; opening the catalog again walks the tree for sizes and
+ * modification times only, and rereads just the ROMs whose file or sidecar changed.
+ * Usage: java RomCatalog [--rebuild] dir [search text]
+ * @author Andrew Cheung
+ */
+
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class RomCatalog {
+    public static final String CACHE_NAME = ".romcatalog";
+
+    /**
+     * Cache header: "C8RC", the format version, and QuirkProfile.tableHash() as of
+     * writing. Entries store the profile by name, so a cache whose profiles or table
+     * of known ROMs has since changed is rebuilt rather than trusted.
+     */
+    private static final int CACHE_MAGIC = 0x43385243;
+    private static final short CACHE_VERSION = 2;
+
+    private static final String[] ROM_EXTENSIONS = { ".ch8", ".c8", ".sc8", ".xo8" };
+    private static final String SIDECAR_EXTENSION = ".txt";
+    private static final String ALT_SUFFIX = " (alt)";
+
+    /**
+     * Fastest sidecar speed kept; the cache stores speeds as unsigned shorts.
+     */
+    private static final int MAX_SPEED = 0xFFFF;
+
+    /**
+     * "Title [Author, Year]" or "Title (Author, Year)"; the author and year are optional.
+     */
+    private static final Pattern NAME = Pattern.compile("(.+?)\\s*[\\[(]([^\\[\\]()]*)[\\])]");
+    private static final Pattern YEAR = Pattern.compile("(19|20)[0-9][0-9x]");
+    private static final Pattern FIELD = Pattern.compile("^\\s*(Title|Author|System|Platform|Speed)\\s*:\\s*(.+)$",
+                                                         Pattern.CASE_INSENSITIVE | Pattern.MULTILINE);
+
+    /**
+     * Platform names, and the keywords that identify them in a sidecar.
+     */
+    private static final String[] PLATFORMS = { "XO-CHIP", "SUPER-CHIP", "CHIP-48", "COSMAC VIP", "CHIP-8" };
+    private static final Pattern[] PLATFORM_KEYWORDS = {
+        Pattern.compile("xo-?chip", Pattern.CASE_INSENSITIVE),
+        Pattern.compile("super-?chip|schip", Pattern.CASE_INSENSITIVE),
+        Pattern.compile("chip-?48", Pattern.CASE_INSENSITIVE),
+        Pattern.compile("cosmac|\\bvip\\b", Pattern.CASE_INSENSITIVE),
+        Pattern.compile("(?<![a-z])chip-?8(?![0-9])", Pattern.CASE_INSENSITIVE),
+    };
+
+    /**
+     * What the catalog knows about one ROM.
+     */
+    public static final class Entry {
+        /**
+         * Path relative to the catalog's root.
+         */
+        public final String path;
+        public final long size;
+        public final long lastModified;
+        public final long sidecarModified;
+        public final String sha1;
+        public final String title;
+        public final String author;
+        public final String year;
+
+        /**
+         * Platform the sidecar names, e.g. "CHIP-48", or "" if it names none.
+         */
+        public final String platform;
+        public final QuirkProfile quirks;
+
+        /**
+         * Speed the sidecar recommends, or 0 if it doesn't give one in 1..65535.
+         */
+        public final int instructionsPerFrame;
+
+        Entry(String path, long size, long lastModified, long sidecarModified, String sha1, String title,
+              String author, String year, String platform, QuirkProfile quirks, int instructionsPerFrame) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.sidecarModified = sidecarModified;
+            this.sha1 = sha1;
+            this.title = title;
+            this.author = author;
+            this.year = year;
+            this.platform = platform;
+            this.quirks = quirks;
+            this.instructionsPerFrame = instructionsPerFrame;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s  %-40s %-28s %-5s %-11s %s", sha1.substring(0, 8), title, author, year,
+                                 platform, quirks);
+        }
+    }
+
+    private final Path root;
+    private final List<Entry> entries;
+    private final int entriesRead;
+
+    private RomCatalog(Path root, List<Entry> entries, int entriesRead) {
+        this.root = root;
+        this.entries = entries;
+        this.entriesRead = entriesRead;
+    }
+
+    /**
+     * Opens the catalog of the given directory, reusing the cached index where the
+     * files are unchanged and saving it back if anything was reread.
+     * @param root - directory to catalog
+     * @param rebuild - true to ignore the cache and reread every ROM
+     * @return catalog, sorted by path
+     * @throws IOException if the tree can't be walked or a ROM can't be read; an
+     *                     unreadable or stale cache is just rebuilt
+     */
+    public static RomCatalog open(Path root, boolean rebuild) throws IOException {
+        Path cache = root.resolve(CACHE_NAME);
+        Map<String, Entry> cached = rebuild ? new HashMap<String, Entry>() : readCache(cache);
+
+        Map<String, BasicFileAttributes> roms = new TreeMap<String, BasicFileAttributes>();
+        Map<String, Long> sidecars = new HashMap<String, Long>();
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                String name = file.getFileName().toString().toLowerCase();
+                if (!attributes.isRegularFile()) {
+                    return FileVisitResult.CONTINUE;
+                }
+                String path = relative(root, file);
+                if (name.endsWith(SIDECAR_EXTENSION)) {
+                    sidecars.put(path, attributes.lastModifiedTime().toMillis());
+                } else if (isROM(name)) {
+                    roms.put(path, attributes);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        List<Entry> entries = new ArrayList<Entry>();
+        int read = 0;
+        for (Map.Entry<String, BasicFileAttributes> rom : roms.entrySet()) {
+            String path = rom.getKey();
+            long size = rom.getValue().size();
+            long lastModified = rom.getValue().lastModifiedTime().toMillis();
+            List<String> notes = sidecarsFor(path, sidecars);
+            long sidecarModified = 0;
+            for (String note : notes) {
+                sidecarModified = Math.max(sidecarModified, sidecars.get(note));
+            }
+            Entry entry = cached.get(path);
+            if (entry == null || entry.size != size || entry.lastModified != lastModified
+                || entry.sidecarModified != sidecarModified) {
+                entry = describe(root, path, size, lastModified, notes, sidecarModified);
+                read++;
+            }
+            entries.add(entry);
+        }
+        RomCatalog catalog = new RomCatalog(root, Collections.unmodifiableList(entries), read);
+        if (read > 0 || entries.size() != cached.size()) {
+            catalog.writeCache(cache);
+        }
+        return catalog;
+    }
+
+    /**
+     * Returns every ROM in the catalog, sorted by path.
+     */
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Returns the number of ROMs hashed and described when the catalog was opened,
+     * i.e. those the cache didn't cover.
+     */
+    public int getEntriesRead() {
+        return entriesRead;
+    }
+
+    /**
+     * Returns the absolute path of an entry.
+     */
+    public Path resolve(Entry entry) {
+        return root.resolve(entry.path);
+    }
+
+    /**
+     * Returns the first entry with the given SHA-1, or null.
+     */
+    public Entry findBySha1(String sha1) {
+        for (Entry entry : entries) {
+            if (entry.sha1.equals(sha1)) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the entries whose path, title, author, year, platform or quirk profile
+     * contains the given text, ignoring case.
+     */
+    public List<Entry> search(String text) {
+        String needle = text.toLowerCase();
+        List<Entry> matches = new ArrayList<Entry>();
+        for (Entry entry : entries) {
+            String haystack = String.join("\n", entry.path, entry.title, entry.author, entry.year,
+                                          entry.platform, entry.quirks.name()).toLowerCase();
+            if (haystack.contains(needle)) {
+                matches.add(entry);
+            }
+        }
+        return matches;
+    }
+
+    private static boolean isROM(String name) {
+        for (String extension : ROM_EXTENSIONS) {
+            if (name.endsWith(extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String relative(Path root, Path file) {
+        return root.relativize(file).toString().replace(File.separatorChar, '/');
+    }
+
+    /**
+     * Returns the sidecars that describe the given ROM: its own, or that of the ROM it
+     * is an "(alt)" of, then any "!" notes in its directory.
+     */
+    private static List<String> sidecarsFor(String path, Map<String, Long> sidecars) {
+        List<String> notes = new ArrayList<String>();
+        String base = path.substring(0, path.lastIndexOf('.'));
+        String own = base + SIDECAR_EXTENSION;
+        String original = base.replace(ALT_SUFFIX, "") + SIDECAR_EXTENSION;
+        if (sidecars.containsKey(own)) {
+            notes.add(own);
+        } else if (sidecars.containsKey(original)) {
+            notes.add(original);
+        }
+        String dir = path.substring(0, path.lastIndexOf('/') + 1);
+        for (String note : sidecars.keySet()) {
+            if (note.startsWith(dir + "!") && note.indexOf('/', dir.length()) < 0) {
+                notes.add(note);
+            }
+        }
+        return notes;
+    }
+
+    /**
+     * Hashes a ROM and works out its description from its name and sidecars.
+     */
+    private static Entry describe(Path root, String path, long size, long lastModified,
+                                  List<String> notes, long sidecarModified) throws IOException {
+        byte[] ROM = Files.readAllBytes(root.resolve(path));
+        String name = path.substring(path.lastIndexOf('/') + 1, path.lastIndexOf('.'));
+        boolean alt = name.contains(ALT_SUFFIX);
+        name = name.replace(ALT_SUFFIX, "");
+
+        String title = name;
+        String author = "";
+        String year = "";
+        Matcher matcher = NAME.matcher(name);
+        while (matcher.find()) {
+            // the last bracketed group holds the credits; earlier ones are part of the title
+            String group = matcher.group(2).trim();
+            if (YEAR.matcher(group).matches()) {
+                year = group;
+            } else {
+                title = name.substring(0, matcher.start(2) - 1).trim();
+                author = group;
+            }
+        }
+        int comma = author.lastIndexOf(',');
+        if (comma >= 0 && YEAR.matcher(author.substring(comma + 1).trim()).matches()) {
+            year = author.substring(comma + 1).trim();
+            author = author.substring(0, comma).trim();
+        }
+        if (alt) {
+            title += ALT_SUFFIX;
+        }
+
+        String platform = "";
+        int instructionsPerFrame = 0;
+        for (String note : notes) {
+            String text = new String(Files.readAllBytes(root.resolve(note)), "ISO-8859-1");
+            Matcher field = FIELD.matcher(text);
+            while (field.find()) {
+                String key = field.group(1).toLowerCase();
+                String value = field.group(2).trim();
+                if (key.equals("speed")) {
+                    try {
+                        int speed = Integer.parseInt(value.split("\\s+")[0]);
+                        if (speed > 0 && speed <= MAX_SPEED) {
+                            instructionsPerFrame = speed;
+                        }
+                    } catch (NumberFormatException e) {
+                        // free text, e.g. "Speed: fast"
+                    }
+                } else if ((key.equals("system") || key.equals("platform")) && platform.isEmpty()) {
+                    platform = platformOf(value);
+                }
+            }
+            if (platform.isEmpty()) {
+                platform = platformOf(text);
+            }
+        }
+
+        QuirkProfile quirks = QuirkProfile.forRom(ROM);
+        if (quirks == QuirkProfile.MODERN) {
+            quirks = quirksFor(platform);
+        }
+        return new Entry(path, size, lastModified, sidecarModified, QuirkProfile.sha1(ROM), title, author, year,
+                         platform, quirks, instructionsPerFrame);
+    }
+
+    /**
+     * Returns the one platform the given text names, or "" if it names none or several.
+     */
+    private static String platformOf(String text) {
+        String found = "";
+        for (int i = 0; i < PLATFORMS.length; i++) {
+            if (PLATFORM_KEYWORDS[i].matcher(text).find()) {
+                if (!found.isEmpty()) {
+                    return "";
+                }
+                found = PLATFORMS[i];
+            }
+        }
+        return found;
+    }
+
+    private static QuirkProfile quirksFor(String platform) {
+        if (platform.equals("COSMAC VIP")) {
+            return QuirkProfile.COSMAC_VIP;
+        } else if (platform.equals("CHIP-48")) {
+            return QuirkProfile.CHIP48;
+        } else if (platform.equals("SUPER-CHIP")) {
+            return QuirkProfile.SUPER_CHIP;
+        }
+        return QuirkProfile.MODERN;
+    }
+
+    /**
+     * Reads the cached entries, keyed by path, or returns none if the cache is missing,
+     * unreadable, from another version, or made with other quirk profiles.
+     */
+    private static Map<String, Entry> readCache(Path cache) {
+        Map<String, Entry> entries = new HashMap<String, Entry>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(cache)))) {
+            if (in.readInt() != CACHE_MAGIC || in.readShort() != CACHE_VERSION
+                || !in.readUTF().equals(QuirkProfile.tableHash())) {
+                return entries;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String path = in.readUTF();
+                long size = in.readInt() & 0xFFFFFFFFL;
+                long lastModified = in.readLong();
+                long sidecarModified = in.readLong();
+                byte[] digest = new byte[20];
+                in.readFully(digest);
+                String title = in.readUTF();
+                String author = in.readUTF();
+                String year = in.readUTF();
+                String platform = in.readUTF();
+                QuirkProfile quirks = QuirkProfile.valueOf(in.readUTF());
+                int instructionsPerFrame = in.readUnsignedShort();
+                entries.put(path, new Entry(path, size, lastModified, sidecarModified, toHex(digest), title,
+                                            author, year, platform, quirks, instructionsPerFrame));
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            return new HashMap<String, Entry>();
+        }
+        return entries;
+    }
+
+    /**
+     * Writes the index to a temporary file and moves it over the cache, so a reader
+     * never sees half of one.
+     */
+    private void writeCache(Path cache) throws IOException {
+        Path temporary = cache.resolveSibling(CACHE_NAME + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+            out.writeInt(CACHE_MAGIC);
+            out.writeShort(CACHE_VERSION);
+            out.writeUTF(QuirkProfile.tableHash());
+            out.writeInt(entries.size());
+            for (Entry entry : entries) {
+                out.writeUTF(entry.path);
+                out.writeInt((int)entry.size);
+                out.writeLong(entry.lastModified);
+                out.writeLong(entry.sidecarModified);
+                for (int i = 0; i < entry.sha1.length(); i += 2) {
+                    out.writeByte(Integer.parseInt(entry.sha1.substring(i, i + 2), 16));
+                }
+                out.writeUTF(entry.title);
+                out.writeUTF(entry.author);
+                out.writeUTF(entry.year);
+                out.writeUTF(entry.platform);
+                out.writeUTF(entry.quirks.name());
+                out.writeShort(entry.instructionsPerFrame);
+            }
+        }
+        Files.move(temporary, cache, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(2 * bytes.length);
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    public static void main(String[] args) {
+        boolean rebuild = false;
+        String dir = null;
+        String query = null;
+        for (String arg : args) {
+            if (arg.equals("--rebuild")) {
+                rebuild = true;
+            } else if (dir == null) {
+                dir = arg;
+            } else {
+                query = arg;
+            }
+        }
+        if (dir == null) {
+            System.err.println("Usage: java RomCatalog [--rebuild] dir [search text]");
+            return;
+        }
+        try {
+            long start = System.nanoTime();
+            RomCatalog catalog = open(Paths.get(dir), rebuild);
+            long nanos = System.nanoTime() - start;
+            List<Entry> entries = query == null ? catalog.getEntries() : catalog.search(query);
+            for (Entry entry : entries) {
+                System.out.println(entry);
+            }
+            System.err.println(String.format("%d ROMs, %d read, %.1f ms", catalog.getEntries().size(),
+                                             catalog.getEntriesRead(), nanos / 1e6));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/**
+ * Renders the buzzer as 16-bit mono PCM: a square wave, or the XO-CHIP audio pattern
+ * once a ROM loads a non-empty one. State is set on the emulator thread and read by
+ * whichever thread calls fill(), with no locks on either side: the tone is a volatile
+ * flag, and the pattern and pitch are published together as one immutable Pattern
+ * through a volatile reference, so the reader never sees half of an update.
+ * @author Andrew Cheung
+ */
+
+import javax.sound.sampled.AudioFormat;
+import java.util.Arrays;
+
+public class ToneGenerator {
+    public static final int SAMPLE_RATE = 48000;
+    public static final int BYTES_PER_SAMPLE = 2;
+    public static final AudioFormat FORMAT = new AudioFormat(SAMPLE_RATE, 16, 1, true, false);
+
+    /**
+     * Frequency of the square wave played when no pattern is loaded.
+     */
+    public static final int TONE_HZ = 440;
+
+    private static final int AMPLITUDE = 0x1800;
+    private static final int PATTERN_BITS = 128;
+
+    /**
+     * XO-CHIP plays the pattern at 4000 * 2^((pitch - 64) / 48) bits per second.
+     */
+    private static final double PATTERN_BASE_RATE = 4000;
+
+    /**
+     * The square wave, i.e. an empty pattern at the default pitch.
+     */
+    private static final Pattern SQUARE = new Pattern(0, 0, Chip8.DEFAULT_PITCH);
+
+    /**
+     * An audio pattern and the pitch it plays at, with its rate in bits per sample.
+     */
+    private static final class Pattern {
+        final long first;
+        final long second;
+        final int pitch;
+        final double step;
+
+        Pattern(long first, long second, int pitch) {
+            this.first = first;
+            this.second = second;
+            this.pitch = pitch;
+            if ((first | second) == 0) {
+                step = 2.0 * TONE_HZ / SAMPLE_RATE;
+            } else {
+                step = PATTERN_BASE_RATE * Math.pow(2, (pitch - 64) / 48.0) / SAMPLE_RATE;
+            }
+        }
+
+        boolean isSquare() {
+            return (first | second) == 0;
+        }
+    }
+
+    private volatile boolean on;
+    private volatile Pattern pattern;
+
+    /**
+     * Position in the pattern, in bits. Only touched by the thread calling fill().
+     */
+    private double phase;
+
+    public ToneGenerator() {
+        pattern = SQUARE;
+    }
+
+    /**
+     * Starts or stops the tone. Safe to call from any thread.
+     */
+    public void setTone(boolean on) {
+        this.on = on;
+    }
+
+    /**
+     * Replaces the pattern. Allocates only if the pattern or pitch actually changed.
+     * Must only be called from one thread at a time, normally the emulator's.
+     * @param pattern - 16 bytes, 128 one-bit samples, most significant bit first;
+     *                  all zeros plays the square wave
+     * @param pitch - XO-CHIP pitch, 0 to 255
+     */
+    public void setPattern(byte[] pattern, int pitch) {
+        long first = 0;
+        long second = 0;
+        for (int i = 0; i < 8; i++) {
+            first = (first << 8) | (pattern[i] & 0xFFL);
+            second = (second << 8) | (pattern[i + 8] & 0xFFL);
+        }
+        Pattern current = this.pattern;
+        if (current.first != first || current.second != second || current.pitch != pitch) {
+            this.pattern = new Pattern(first, second, pitch);
+        }
+    }
+
+    /**
+     * Writes the given number of samples, little-endian, into buffer at offset.
+     * @param buffer - destination with room for samples * BYTES_PER_SAMPLE bytes
+     * @param offset - byte offset of the first sample
+     * @param samples - number of samples to render
+     */
+    public void fill(byte[] buffer, int offset, int samples) {
+        if (!on) {
+            Arrays.fill(buffer, offset, offset + samples * BYTES_PER_SAMPLE, (byte)0);
+            phase = 0;
+            return;
+        }
+        Pattern current = pattern;
+        long first = current.first;
+        long second = current.second;
+        boolean square = current.isSquare();
+        double step = current.step;
+        for (int i = 0; i < samples; i++) {
+            int bit = (int)phase;
+            boolean high;
+            if (square) {
+                high = (bit & 1) == 0;
+            } else {
+                long word = bit < 64 ? first : second;
+                high = (word << (bit & 63)) < 0;
+            }
+            int sample = high ? AMPLITUDE : -AMPLITUDE;
+            buffer[offset++] = (byte)sample;
+            buffer[offset++] = (byte)(sample >> 8);
+            phase += step;
+            if (phase >= PATTERN_BITS) {
+                phase -= PATTERN_BITS;
+            }
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/**
+ * Lock-free triple buffer for handing finished frames from the emulator thread to the
+ * painting thread. The emulator fills back() and publishes it with one atomic swap;
+ * the painter's acquire() swaps in the newest published frame, if any. Neither side
+ * ever blocks or sees a buffer the other is writing.
+ * @author Andrew Cheung
+ */
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TripleBuffer {
+    private static final int INDEX_MASK = 0x3;
+    private static final int FRESH = 0x4;
+
+    private final long[][] buffers;
+
+    /**
+     * Index of the shared middle buffer, plus FRESH if it holds a frame the painter
+     * has not acquired yet.
+     */
+    private final AtomicInteger middle;
+
+    /**
+     * Owned by the emulator thread.
+     */
+    private int back;
+
+    /**
+     * Owned by the painting thread.
+     */
+    private int front;
+
+    /**
+     * Constructs a triple buffer of blank frames.
+     * @param length - number of longs in a frame
+     */
+    public TripleBuffer(int length) {
+        buffers = new long[3][length];
+        back = 0;
+        middle = new AtomicInteger(1);
+        front = 2;
+    }
+
+    /**
+     * Returns the buffer the emulator thread may write the next frame into.
+     */
+    public long[] back() {
+        return buffers[back];
+    }
+
+    /**
+     * Publishes the back buffer as the newest frame. Called on the emulator thread.
+     */
+    public void publish() {
+        back = middle.getAndSet(back | FRESH) & INDEX_MASK;
+    }
+
+    /**
+     * Returns the newest published frame. Called on the painting thread; the result
+     * stays valid and unchanged until the next call.
+     */
+    public long[] acquire() {
+        if ((middle.get() & FRESH) != 0) {
+            front = middle.getAndSet(front) & INDEX_MASK;
+        }
+        return buffers[front];
+    }
+}
@@ -0,0 +1,108 @@
+/**
+ * Writes the buzzer to a 16-bit mono WAV file in emulated time rather than wall-clock
+ * time: each endFrame() appends exactly one frame's worth of samples, so the same run
+ * always writes the same file, however fast it went. For headless runs and tests.
+ * A frame is written whole if the tone was on at any point during it.
+ * @author Andrew Cheung
+ */
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+public class WavAudioSink implements AudioSink, Closeable {
+    public static final int SAMPLES_PER_FRAME = ToneGenerator.SAMPLE_RATE / Main.FRAMES_PER_SECOND;
+
+    private static final int HEADER_SIZE = 44;
+
+    private final ToneGenerator generator;
+    private final RandomAccessFile file;
+    private final byte[] frame;
+    private long dataBytes;
+    private boolean closed;
+
+    /**
+     * True while the tone is on, and for the rest of a frame it was turned on in.
+     */
+    private boolean on;
+    private boolean heldThisFrame;
+
+    /**
+     * Creates the file, overwriting any existing one.
+     * @param wav - file to write
+     * @throws IOException if the file can't be created
+     */
+    public WavAudioSink(File wav) throws IOException {
+        generator = new ToneGenerator();
+        file = new RandomAccessFile(wav, "rw");
+        file.setLength(0);
+        file.write(header());
+        frame = new byte[SAMPLES_PER_FRAME * ToneGenerator.BYTES_PER_SAMPLE];
+    }
+
+    public void setTone(boolean on) {
+        this.on = on;
+        if (on) {
+            heldThisFrame = true;
+        }
+    }
+
+    public void setPattern(byte[] pattern, int pitch) {
+        generator.setPattern(pattern, pitch);
+    }
+
+    /**
+     * Appends one frame of samples, unless the file has been closed.
+     * @throws UncheckedIOException if the file can't be written
+     */
+    public synchronized void endFrame() {
+        if (closed) {
+            return;
+        }
+        generator.setTone(on || heldThisFrame);
+        heldThisFrame = on;
+        generator.fill(frame, 0, SAMPLES_PER_FRAME);
+        try {
+            file.write(frame);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        dataBytes += frame.length;
+    }
+
+    /**
+     * Fills in the header's lengths and closes the file. Safe to call from another
+     * thread, e.g. a shutdown hook, while the machine is still running.
+     */
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        file.seek(0);
+        file.write(header());
+        file.close();
+    }
+
+    private byte[] header() {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(0x46464952);                  // "RIFF"
+        header.putInt((int)(HEADER_SIZE - 8 + dataBytes));
+        header.putInt(0x45564157);                  // "WAVE"
+        header.putInt(0x20746D66);                  // "fmt "
+        header.putInt(16);
+        header.putShort((short)1);                  // PCM
+        header.putShort((short)1);                  // mono
+        header.putInt(ToneGenerator.SAMPLE_RATE);
+        header.putInt(ToneGenerator.SAMPLE_RATE * ToneGenerator.BYTES_PER_SAMPLE);
+        header.putShort((short)ToneGenerator.BYTES_PER_SAMPLE);
+        header.putShort((short)16);
+        header.putInt(0x61746164);                  // "data"
+        header.putInt((int)dataBytes);
+        return header.array();
+    }
+}
@@ -0,0 +1,87 @@
+/**
+ * Runs a short looping program through Chip8.cycle() one instruction at a time, with
+ * the block compiler off, so each run() is one fetch, decode and dispatch.
+ * @author Andrew Cheung
+ */
+
+import java.io.*;
+import java.nio.file.*;
+
+public class InterpreterWorkload implements bench.Workload {
+
+    /**
+     * Arithmetic and logic on registers.
+     */
+    public static final char[] ALU = {
+        0x6005, 0x6107, 0x8014, 0x8015, 0x8102, 0x8013, 0x7001, 0x8106, 0x810E, 0x1200
+    };
+
+    /**
+     * Skips, half of them taken.
+     */
+    public static final char[] BRANCH = {
+        0x3000, 0x6001, 0x4001, 0x6002, 0x5010, 0x6003, 0x9010, 0x6004, 0x7001, 0x1200
+    };
+
+    /**
+     * Register dumps and loads, BCD and index arithmetic.
+     */
+    public static final char[] MEMORY = {
+        0xA300, 0xF355, 0xF365, 0xF033, 0xF01E, 0x1200
+    };
+
+    /**
+     * A font sprite drawn over and over.
+     */
+    public static final char[] DRAW = {
+        0xA050, 0xD015, 0xD015, 0xD015, 0xD015, 0x1202
+    };
+
+    /**
+     * Roughly the proportions of a typical game loop.
+     */
+    public static final char[] MIXED = {
+        0x6005, 0x7001, 0x3005, 0x8014, 0xA050, 0xD015, 0xF01E, 0x4001, 0x8102, 0x1200
+    };
+
+    private Chip8 chip8;
+
+    public InterpreterWorkload(String mix) throws IOException {
+        char[] program;
+        if (mix.equals("alu")) {
+            program = ALU;
+        } else if (mix.equals("branch")) {
+            program = BRANCH;
+        } else if (mix.equals("memory")) {
+            program = MEMORY;
+        } else if (mix.equals("draw")) {
+            program = DRAW;
+        } else if (mix.equals("mixed")) {
+            program = MIXED;
+        } else {
+            throw new IllegalArgumentException("Unknown opcode mix " + mix);
+        }
+        chip8 = new Chip8(writeROM(program).toString());
+        chip8.setSeed(0);
+        chip8.setCompilerEnabled(false);
+    }
+
+    public long run() {
+        return chip8.cycle();
+    }
+
+    /**
+     * Writes the given opcodes to a temporary ROM file, deleted on exit.
+     */
+    public static Path writeROM(char[] program) throws IOException {
+        Path path = Files.createTempFile("workload", ".ch8");
+        path.toFile().deleteOnExit();
+        byte[] bytes = new byte[program.length * 2];
+        for (int i = 0; i < program.length; i++) {
+            bytes[2 * i] = (byte)(program[i] >> 8);
+            bytes[2 * i + 1] = (byte)program[i];
+        }
+        Files.write(path, bytes);
+        return path;
+    }
+}
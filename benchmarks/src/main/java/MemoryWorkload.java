@@ -0,0 +1,45 @@
+/**
+ * Sweeps Memory.getOpcode, read or write across the program area.
+ * @author Andrew Cheung
+ */
+
+import java.io.*;
+
+public class MemoryWorkload implements bench.Workload {
+    private static final int GET_OPCODE = 0;
+    private static final int READ = 1;
+    private static final int WRITE = 2;
+
+    private Memory memory;
+    private int operation;
+    private char address;
+
+    public MemoryWorkload(String operation) throws IOException {
+        if (operation.equals("getOpcode")) {
+            this.operation = GET_OPCODE;
+        } else if (operation.equals("read")) {
+            this.operation = READ;
+        } else if (operation.equals("write")) {
+            this.operation = WRITE;
+        } else {
+            throw new IllegalArgumentException("Unknown memory operation " + operation);
+        }
+        memory = new Memory();
+        memory.loadROM(InterpreterWorkload.writeROM(InterpreterWorkload.MIXED).toString());
+        address = Memory.START_ADDRESS;
+    }
+
+    public long run() {
+        address += 2;
+        if (address >= Memory.END_ADDRESS) {
+            address = Memory.START_ADDRESS;
+        }
+        if (operation == GET_OPCODE) {
+            return memory.getOpcode(address);
+        } else if (operation == READ) {
+            return memory.read(address);
+        }
+        memory.write(address, (byte)address);
+        return address;
+    }
+}
@@ -0,0 +1,50 @@
+/**
+ * Paints a DisplayPanel the size of the window into an offscreen image. "changing"
+ * publishes a frame whose every row differs from the last before each paint; "static"
+ * paints the same frame every time.
+ * @author Andrew Cheung
+ */
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+
+public class PaintWorkload implements bench.Workload {
+    private DisplayPanel panel;
+    private TripleBuffer frames;
+    private Graphics2D graphics;
+    private boolean changing;
+    private long pattern;
+
+    public PaintWorkload(String mode) {
+        if (!mode.equals("changing") && !mode.equals("static")) {
+            throw new IllegalArgumentException("Unknown paint mode " + mode);
+        }
+        changing = mode.equals("changing");
+        int width = DisplayFrame.WIDTH * DisplayFrame.PIXEL_SIZE;
+        int height = DisplayFrame.HEIGHT * DisplayFrame.PIXEL_SIZE;
+        panel = new DisplayPanel();
+        panel.setSize(width, height);
+        frames = new TripleBuffer(Chip8.FRAME_LENGTH);
+        panel.updateGraphics(frames);
+        graphics = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB).createGraphics();
+        pattern = 0xAAAAAAAAAAAAAAAAL;
+        publish();
+    }
+
+    public long run() {
+        if (changing) {
+            pattern = ~pattern;
+            publish();
+        }
+        panel.paint(graphics);
+        return pattern;
+    }
+
+    private void publish() {
+        long[] back = frames.back();
+        for (int j = 0; j < back.length; j++) {
+            back[j] = Long.rotateLeft(pattern, j);
+        }
+        frames.publish();
+    }
+}
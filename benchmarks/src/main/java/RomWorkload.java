@@ -0,0 +1,23 @@
+/**
+ * Runs whole frames of a ROM with no input, at the default instructions per frame.
+ * Append "#jit" to the path to enable the block compiler.
+ * @author Andrew Cheung
+ */
+
+public class RomWorkload implements bench.Workload {
+    private Chip8 chip8;
+
+    public RomWorkload(String rom) {
+        boolean jit = rom.endsWith("#jit");
+        if (jit) {
+            rom = rom.substring(0, rom.length() - "#jit".length());
+        }
+        chip8 = new Chip8(rom);
+        chip8.setSeed(0);
+        chip8.setCompilerEnabled(jit);
+    }
+
+    public long run() {
+        return chip8.runFrame(Main.DEFAULT_INSTRUCTIONS_PER_FRAME);
+    }
+}
@@ -0,0 +1,29 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Instructions per microsecond for a loop that is almost entirely Dxyn.
+ * @author Andrew Cheung
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DrawBenchmark {
+
+    private Workload workload;
+
+    @Setup
+    public void setUp() throws Exception {
+        workload = Workload.load("InterpreterWorkload", "draw");
+    }
+
+    @Benchmark
+    public long draw() {
+        return workload.run();
+    }
+}
@@ -0,0 +1,32 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Fetch, decode and dispatch through the interpreter for representative opcode mixes.
+ * @author Andrew Cheung
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InterpreterBenchmark {
+
+    @Param({"alu", "branch", "memory", "mixed"})
+    public String mix;
+
+    private Workload workload;
+
+    @Setup
+    public void setUp() throws Exception {
+        workload = Workload.load("InterpreterWorkload", mix);
+    }
+
+    @Benchmark
+    public long cycle() {
+        return workload.run();
+    }
+}
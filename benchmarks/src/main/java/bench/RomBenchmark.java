@@ -0,0 +1,38 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Whole frames of real games from roms/games, with and without the block compiler.
+ * Run from the repository root so the ROM paths resolve.
+ * @author Andrew Cheung
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RomBenchmark {
+
+    @Param({"Brix [Andreas Gustafsson, 1990].ch8",
+            "Blinky [Hans Christian Egeberg, 1991].ch8",
+            "Space Invaders [David Winter].ch8"})
+    public String rom;
+
+    @Param({"false", "true"})
+    public String jit;
+
+    private Workload workload;
+
+    @Setup
+    public void setUp() throws Exception {
+        workload = Workload.load("RomWorkload", "roms/games/" + rom + (jit.equals("true") ? "#jit" : ""));
+    }
+
+    @Benchmark
+    public long frame() {
+        return workload.run();
+    }
+}
@@ -0,0 +1,27 @@
+package bench;
+
+/**
+ * Entry point of the benchmark jar. Takes the usual JMH arguments, and unless a result
+ * format is given writes the results as JSON to jmh-result.json so runs can be compared
+ * over time.
+ * @author Andrew Cheung
+ */
+public class Run {
+    public static final String DEFAULT_RESULT = "jmh-result.json";
+
+    public static void main(String[] args) throws Exception {
+        for (String arg : args) {
+            if (arg.equals("-rf") || arg.equals("-rff")) {
+                org.openjdk.jmh.Main.main(args);
+                return;
+            }
+        }
+        String[] withResult = new String[args.length + 4];
+        withResult[0] = "-rf";
+        withResult[1] = "json";
+        withResult[2] = "-rff";
+        withResult[3] = DEFAULT_RESULT;
+        System.arraycopy(args, 0, withResult, 4, args.length);
+        org.openjdk.jmh.Main.main(withResult);
+    }
+}
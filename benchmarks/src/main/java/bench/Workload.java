@@ -0,0 +1,26 @@
+package bench;
+
+/**
+ * One unit of emulator work for a benchmark to time. JMH will not generate benchmarks
+ * for classes in the default package, and classes in a named package cannot refer to
+ * the emulator's, so each workload is implemented next to the emulator and loaded by
+ * name.
+ * @author Andrew Cheung
+ */
+public interface Workload {
+
+    /**
+     * Performs one unit of work.
+     * @return a value derived from the work, for the benchmark to consume
+     */
+    public long run();
+
+    /**
+     * Instantiates the named default-package workload with the given argument.
+     * @param className - name of a class implementing Workload with a String constructor
+     * @param argument - passed to the constructor
+     */
+    public static Workload load(String className, String argument) throws Exception {
+        return (Workload)Class.forName(className).getConstructor(String.class).newInstance(argument);
+    }
+}
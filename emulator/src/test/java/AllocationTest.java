@@ -0,0 +1,114 @@
+/**
+ * Checks that the steady-state hot path allocates nothing: once a ROM is warmed up,
+ * running a million instructions, presenting frames and polling keys included, must
+ * not allocate a single byte on the emulator thread, with the recompiler on or off.
+ * @author Andrew Cheung
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+public class AllocationTest {
+    private static final int INSTRUCTIONS = 1_000_000;
+
+    /**
+     * Instructions run before measuring, long enough for the recompiler to compile its
+     * blocks and the JVM to finish compiling the interpreter loop.
+     */
+    private static final int WARMUP = 10_000_000;
+
+    /**
+     * A loop through the arithmetic, random, timer, key, BCD, load/store, call and
+     * draw opcodes, with straight-line runs for the recompiler to compile.
+     */
+    private static final char[] PROGRAM = {
+        0x6005,         // 200: V0 = 5
+        0x610A,         // 202: V1 = 10
+        0x7001,         // 204: V0 += 1
+        0x8014,         // 206: V0 += V1
+        0x8126,         // 208: V1 >>= 1
+        0x7103,         // 20A: V1 += 3
+        0xC20F,         // 20C: V2 = random & 0F
+        0xF229,         // 20E: I = sprite of V2
+        0xD015,         // 210: draw 5 rows at V0, V1
+        0xA300,         // 212: I = 300
+        0xF033,         // 214: BCD of V0 at I
+        0xF265,         // 216: V0..V2 = [I]
+        0xF255,         // 218: [I] = V0..V2
+        0xF31E,         // 21A: I += V3
+        0x2220,         // 21C: call 220
+        0x1204,         // 21E: jump 204
+        0xF315,         // 220: delay = V3
+        0xF318,         // 222: sound = V3
+        0xF307,         // 224: V3 = delay
+        0x7301,         // 226: V3 += 1
+        0xE39E,         // 228: skip if key V3 is down
+        0x00EE,         // 22A: return
+        0x00EE,         // 22C: return
+    };
+
+    private static com.sun.management.ThreadMXBean threads;
+
+    @BeforeAll
+    public static void checkSupport() {
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean,
+                   "JVM can't measure allocation");
+        threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported(), "JVM can't measure allocation");
+        threads.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    @Test
+    public void interpreterAllocatesNothing() {
+        for (QuirkProfile quirks : QuirkProfile.values()) {
+            assertEquals(0, allocatedBytes(quirks, false), quirks + " interpreter allocated");
+        }
+    }
+
+    @Test
+    public void compilerAllocatesNothing() {
+        for (QuirkProfile quirks : QuirkProfile.values()) {
+            assertEquals(0, allocatedBytes(quirks, true), quirks + " recompiler allocated");
+        }
+    }
+
+    /**
+     * Warms up a machine running PROGRAM, then returns the bytes allocated by the
+     * current thread over INSTRUCTIONS more instructions.
+     */
+    private static long allocatedBytes(QuirkProfile quirks, boolean compiled) {
+        Chip8 chip = new Chip8(program());
+        chip.setQuirks(quirks);
+        chip.setCompilerEnabled(compiled);
+        chip.setSeed(1);
+        chip.setDisplay(frames -> frames.acquire());
+        int[] frame = new int[1];
+        chip.setInput(keys -> ++frame[0] & 0xFFFF);
+
+        run(chip, WARMUP);
+        long thread = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(thread);
+        run(chip, INSTRUCTIONS);
+        return threads.getThreadAllocatedBytes(thread) - before;
+    }
+
+    private static void run(Chip8 chip, int instructions) {
+        long executed = 0;
+        while (executed < instructions) {
+            executed += Math.max(1, chip.runFrame(Main.DEFAULT_INSTRUCTIONS_PER_FRAME));
+        }
+    }
+
+    private static byte[] program() {
+        byte[] ROM = new byte[2 * PROGRAM.length];
+        for (int i = 0; i < PROGRAM.length; i++) {
+            ROM[2 * i] = (byte)(PROGRAM[i] >> 8);
+            ROM[2 * i + 1] = (byte)PROGRAM[i];
+        }
+        return ROM;
+    }
+}
@@ -0,0 +1,84 @@
+/**
+ * Checks that a recording replays bit-exactly from the file alone.
+ * @author Andrew Cheung
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import org.junit.jupiter.api.Test;
+
+public class ReplayTest {
+    private static final int FRAMES = 600;
+
+    /**
+     * Draws V0 as it is shifted, or'ed and bumped with the keys held, so what appears
+     * depends on the 8xy1 and 8xy6 quirks and on input.
+     */
+    private static final byte[] ROM = {
+        0x61, 0x37,                 // 200: V1 = 37
+        (byte)0xF2, 0x07,           // 202: V2 = delay
+        (byte)0x80, 0x16,           // 204: V0 = V1 >> 1, or V0 >>= 1
+        (byte)0x80, 0x21,           // 206: V0 |= V2
+        0x7F, 0x00,                 // 208: VF += 0
+        (byte)0x80, (byte)0xF4,     // 20A: V0 += VF
+        (byte)0xE3, (byte)0xA1,     // 20C: skip if key V3 is up
+        0x71, 0x05,                 // 20E: V1 += 5
+        0x73, 0x01,                 // 210: V3 += 1
+        (byte)0x83, 0x02,           // 212: V3 &= V0
+        0x64, 0x0F,                 // 214: V4 = 0F
+        (byte)0x84, 0x02,           // 216: V4 &= V0
+        (byte)0xF4, 0x29,           // 218: I = sprite of V4
+        (byte)0xD0, 0x15,           // 21A: draw 5 rows at V0, V1
+        (byte)0xF1, 0x15,           // 21C: delay = V1
+        0x12, 0x02,                 // 21E: jump 202
+    };
+
+    @Test
+    public void replayUsesRecordedQuirks() throws IOException {
+        File file = File.createTempFile("replay", ".c8r");
+        file.deleteOnExit();
+        long recorded = record(QuirkProfile.COSMAC_VIP, file);
+
+        // a fresh machine starts out with the ROM's own profile
+        Chip8 chip = new Chip8(ROM);
+        assertEquals(QuirkProfile.MODERN, chip.getQuirks());
+        InputReplayer replayer = new InputReplayer(file);
+        assertTrue(replayer.replay(chip), "diverged at frame " + replayer.getDivergedAt());
+        assertEquals(QuirkProfile.COSMAC_VIP, chip.getQuirks());
+        assertEquals(FRAMES, replayer.getFrames());
+        assertEquals(recorded, replayer.getRollingHash());
+    }
+
+    @Test
+    public void quirksChangeTheRecording() throws IOException {
+        File modern = File.createTempFile("replay", ".c8r");
+        File vip = File.createTempFile("replay", ".c8r");
+        modern.deleteOnExit();
+        vip.deleteOnExit();
+        assertTrue(record(QuirkProfile.MODERN, modern) != record(QuirkProfile.COSMAC_VIP, vip),
+                   "ROM doesn't depend on the quirks under test");
+    }
+
+    /**
+     * Records FRAMES frames under the given profile, pressing a different key every
+     * few frames, and returns the final rolling hash.
+     */
+    private static long record(QuirkProfile quirks, File file) throws IOException {
+        Chip8 chip = new Chip8(ROM);
+        chip.setQuirks(quirks);
+        int[] frame = new int[1];
+        InputRecorder recorder = new InputRecorder(chip, keys -> 1 << (frame[0]++ / 7 % 16),
+                                                   Main.DEFAULT_INSTRUCTIONS_PER_FRAME, file);
+        long hash = 0;
+        for (int i = 0; i < FRAMES; i++) {
+            chip.runFrame(Main.DEFAULT_INSTRUCTIONS_PER_FRAME);
+            recorder.endFrame(chip);
+            hash = InputRecorder.fold(hash, chip.getGraphicsHash());
+        }
+        recorder.close();
+        return hash;
+    }
+}
@@ -0,0 +1,103 @@
+/**
+ * Checks that save states round-trip, and that a bad one is rejected without touching
+ * the machine.
+ * @author Andrew Cheung
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.ByteBuffer;
+import org.junit.jupiter.api.Test;
+
+public class SnapshotTest {
+    /**
+     * Counts V0 up, draws it, and stores it in memory, forever.
+     */
+    private static final byte[] ROM = {
+        0x70, 0x01,                 // 200: V0 += 1
+        (byte)0xF0, 0x29,           // 202: I = sprite of V0
+        (byte)0xD1, 0x15,           // 204: draw 5 rows at V1, V1
+        (byte)0xA3, 0x00,           // 206: I = 300
+        (byte)0xF0, 0x55,           // 208: [I] = V0
+        0x12, 0x00,                 // 20A: jump 200
+    };
+
+    @Test
+    public void restoreRoundTrips() {
+        Chip8 chip = running(10);
+        ByteBuffer saved = snapshot(chip);
+        chip.runFrame(100);
+        chip.restore(saved.duplicate());
+        assertEquals(saved, snapshot(chip));
+    }
+
+    @Test
+    public void vipHiresRoundTrips() {
+        // the ROM jumps to 260 first, so it runs at 64x64 from 2C0
+        byte[] hires = new byte[0xC0 + ROM.length];
+        hires[0] = 0x12;
+        hires[1] = 0x60;
+        System.arraycopy(ROM, 0, hires, 0xC0, ROM.length);
+        hires[0xC0 + ROM.length - 1] = (byte)0xC0;       // jump 2C0
+        Chip8 chip = new Chip8(hires);
+        for (int i = 0; i < 10; i++) {
+            chip.runFrame(Main.DEFAULT_INSTRUCTIONS_PER_FRAME);
+        }
+        ByteBuffer saved = snapshot(chip);
+        // width and height, after the registers, timers, stack, keys and RNG state
+        assertEquals(Chip8.WIDTH, saved.getShort(87));
+        assertEquals(Chip8.MAX_HEIGHT, saved.getShort(89));
+        chip.runFrame(100);
+        chip.restore(saved.duplicate());
+        assertEquals(saved, snapshot(chip));
+
+        Chip8 other = running(10);
+        other.restore(saved.duplicate());
+        assertEquals(saved, snapshot(other));
+    }
+
+    @Test
+    public void truncatedSnapshotChangesNothing() {
+        Chip8 chip = running(10);
+        ByteBuffer other = snapshot(running(37));
+        ByteBuffer before = snapshot(chip);
+        for (int length : new int[] { 0, 5, 100, other.limit() - Memory.SNAPSHOT_SIZE, other.limit() - 1 }) {
+            ByteBuffer truncated = other.duplicate();
+            truncated.limit(length);
+            assertThrows(IllegalArgumentException.class, () -> chip.restore(truncated));
+            assertEquals(before, snapshot(chip), "restore of " + length + " bytes");
+        }
+    }
+
+    @Test
+    public void corruptSnapshotChangesNothing() {
+        Chip8 chip = running(10);
+        ByteBuffer other = snapshot(running(37));
+        ByteBuffer before = snapshot(chip);
+        // magic, version, width, and memory size
+        int memorySize = other.limit() - Memory.SNAPSHOT_SIZE + 4;
+        for (int index : new int[] { 0, 4, 88, memorySize }) {
+            ByteBuffer corrupt = ByteBuffer.allocate(other.limit());
+            corrupt.put(other.duplicate()).flip();
+            corrupt.put(index, (byte)(corrupt.get(index) + 1));
+            assertThrows(IllegalArgumentException.class, () -> chip.restore(corrupt));
+            assertEquals(before, snapshot(chip), "restore with byte " + index + " changed");
+        }
+    }
+
+    private static Chip8 running(int frames) {
+        Chip8 chip = new Chip8(ROM);
+        chip.setSeed(1);
+        for (int i = 0; i < frames; i++) {
+            chip.runFrame(Main.DEFAULT_INSTRUCTIONS_PER_FRAME);
+        }
+        return chip;
+    }
+
+    private static ByteBuffer snapshot(Chip8 chip) {
+        ByteBuffer buffer = ByteBuffer.allocate(Chip8.SNAPSHOT_SIZE);
+        chip.snapshot(buffer);
+        return buffer;
+    }
+}